@@ -4,15 +4,80 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.Statement;
+import java.sql.Types;
 import java.sql.SQLException;
 
+import org.postgresql.PGConnection;
+import org.postgresql.PGStatement;
+import org.postgresql.copy.CopyIn;
+import com.github.luben.zstd.ZstdInputStream;
+
 import java.io.File;
 import java.io.FileReader;
 import java.io.FileInputStream;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
-
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import java.net.IDN;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.nio.file.StandardOpenOption;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Scanner;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.SplittableRandom;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import java.nio.charset.StandardCharsets;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
 
 /**
  * <h1>Abstract class to represent a table in the database.</h1>
@@ -23,6 +88,12 @@ import java.util.Scanner;
 
 abstract class Table {
 
+  /**
+   * Number of table loads finished by this process.
+   */
+  static final AtomicLong generation = new AtomicLong();
+
+  final Connection connection;
   final String name;
   final String definition;
   final boolean isTemp;
@@ -30,12 +101,15 @@ abstract class Table {
   /**
    * Constructs a new table.
    *
+   * @param connection Connection the table is created and loaded on.
    * @param name String represents name of the table.
    * @param definition String showing the definition of the table creation.
    * @param isTemp boolean representing whether table is temporary or not.
    * @throws SQLException
    */
-  public Table(String name, String definition, boolean isTemp) throws SQLException {
+  public Table(Connection connection, String name, String definition, boolean isTemp)
+      throws SQLException {
+    this.connection = connection;
     this.name = name;
     this.definition = definition;
     this.isTemp = isTemp;
@@ -51,19 +125,186 @@ abstract class Table {
 
   abstract void insertData() throws SQLException;
 
+  /**
+   * Inserts data in table, analyzes it and bumps the load generation, so cached query results
+   * from before the load are no longer used. When constraints are deferred they are added once
+   * the data is in.
+   *
+   * @throws SQLException
+   *
+   * @see QueryCache
+   * @see #addConstraints()
+   */
+
+  public void load() throws SQLException {
+    insertData();
+    if (Database.isDeferredConstraints()) {
+      addConstraints();
+    }
+    // autovacuum analyzes new rows late and temporary tables never, so the tables loaded from this
+    // one would otherwise be filled by joins planned blind
+    Statement st = this.connection.createStatement();
+    st.execute("ANALYZE " + name + ";");
+    st.close();
+    generation.incrementAndGet();
+  }
+
+  /**
+   * Gives the columns of the table to index besides its keys.
+   *
+   * @return String array of column lists, empty by default.
+   */
+  String[] indexes() {
+    return new String[0];
+  }
+
+  /**
+   * Gives the definition the table is created with, which leaves out the table constraints when
+   * they are deferred.
+   *
+   * @return the column definitions and, unless deferred, the table constraints.
+   */
+  String createDefinition() {
+    if (!Database.isDeferredConstraints()) {
+      return this.definition;
+    }
+    StringBuilder columns = new StringBuilder();
+    for (String clause : clauses()) {
+      if (!isConstraint(clause)) {
+        columns.append(columns.length() == 0 ? "" : ", ").append(clause);
+      }
+    }
+    return columns.toString();
+  }
+
+  /**
+   * Adds the table constraints and indexes left out by {@link #createDefinition()} to a loaded
+   * table, all in one ALTER TABLE. Rows the keys would have rejected at insert time are removed
+   * first, keeping the one inserted first as <code>ON CONFLICT DO NOTHING</code> does.
+   *
+   * @throws SQLException
+   *
+   * @see #removeConflicts(List)
+   */
+  public void addConstraints() throws SQLException {
+    long start = System.nanoTime();
+    List<String> constraints = new ArrayList<String>();
+    List<String> keys = new ArrayList<String>();
+    for (String clause : clauses()) {
+      if (isConstraint(clause)) {
+        constraints.add(clause);
+        if (clause.startsWith("PRIMARY KEY") || clause.startsWith("UNIQUE")) {
+          keys.add(clause.substring(clause.indexOf('(') + 1, clause.lastIndexOf(')')));
+        }
+      }
+    }
+
+    Statement st = this.connection.createStatement();
+    if (keys.size() == 1) {
+      st.executeUpdate("DELETE FROM " + this.name + " WHERE (tableoid, ctid) IN (\n"
+          + "  SELECT tableoid, ctid FROM (SELECT tableoid, ctid, "
+          + "row_number() OVER (PARTITION BY " + keys.get(0) + " ORDER BY tableoid, ctid) AS copy\n"
+          + "    FROM " + this.name + ") AS numbered\n"
+          + "  WHERE copy > 1);");
+    } else if (keys.size() > 1) {
+      removeConflicts(keys);
+    }
+    if (!constraints.isEmpty()) {
+      st.execute("ALTER TABLE " + this.name + " ADD " + String.join(", ADD ", constraints) + ";");
+    }
+    for (String index : indexes()) {
+      st.execute("CREATE INDEX ON " + this.name + " (" + index + ");");
+    }
+    st.close();
+    Database.metrics.record(this.name, "constraints", 0, start);
+  }
+
+  /**
+   * Removes the rows that <code>ON CONFLICT DO NOTHING</code> would have skipped on a table with
+   * several keys. A row is skipped when it collides on any key with a row kept before it, so
+   * deleting the duplicates of each key separately can remove a row whose only conflict was with
+   * a row that is itself removed. Instead the rows sharing a value of any key with another row
+   * are read in insertion order and replayed against the keys of the rows kept so far. Rows that
+   * collide with nothing are kept without being read.
+   *
+   * @param keys List of the column lists of the table's primary key and unique constraints.
+   * @throws SQLException
+   */
+  private void removeConflicts(List<String> keys) throws SQLException {
+    StringBuilder values = new StringBuilder();
+    StringBuilder shared = new StringBuilder();
+    for (int k = 0; k < keys.size(); k++) {
+      // a key with a NULL in it collides with nothing, as in a UNIQUE constraint
+      values.append(", CASE WHEN num_nulls(").append(keys.get(k)).append(") = 0 THEN ROW(")
+          .append(keys.get(k)).append(")::text END AS key").append(k);
+      values.append(", count(*) OVER (PARTITION BY ").append(keys.get(k)).append(") AS count").append(k);
+      shared.append(k == 0 ? "" : " OR ").append("count").append(k).append(" > 1");
+    }
+
+    List<String> tables = new ArrayList<String>();
+    List<String> rows = new ArrayList<String>();
+    List<Set<String>> kept = new ArrayList<Set<String>>();
+    for (int k = 0; k < keys.size(); k++) {
+      kept.add(new HashSet<String>());
+    }
+    ResultSet rs = Database.executeSelect(this.connection, "SELECT tableoid::text, ctid::text"
+        + keyColumns(keys.size()) + "\n"
+        + "FROM (SELECT tableoid, ctid" + values + " FROM " + this.name + ") AS keyed\n"
+        + "WHERE " + shared + "\n"
+        + "ORDER BY tableoid, ctid");
+    while (rs.next()) {
+      boolean conflict = false;
+      for (int k = 0; k < keys.size() && !conflict; k++) {
+        String key = rs.getString(3 + k);
+        conflict = key != null && kept.get(k).contains(key);
+      }
+      if (conflict) {
+        tables.add(rs.getString(1));
+        rows.add(rs.getString(2));
+      } else {
+        for (int k = 0; k < keys.size(); k++) {
+          if (rs.getString(3 + k) != null) {
+            kept.get(k).add(rs.getString(3 + k));
+          }
+        }
+      }
+    }
+    rs.getStatement().close();
+
+    if (!rows.isEmpty()) {
+      PreparedStatement ps = this.connection.prepareStatement("DELETE FROM " + this.name
+          + " WHERE (tableoid, ctid) IN (SELECT * FROM unnest(?::text[]::oid[], ?::text[]::tid[]))");
+      ps.setArray(1, this.connection.createArrayOf("text", tables.toArray()));
+      ps.setArray(2, this.connection.createArrayOf("text", rows.toArray()));
+      ps.executeUpdate();
+      ps.close();
+    }
+  }
+
+  private static String keyColumns(int keys) {
+    StringBuilder columns = new StringBuilder();
+    for (int k = 0; k < keys; k++) {
+      columns.append(", key").append(k);
+    }
+    return columns.toString();
+  }
+
   /**
    * Checks if table already exists before creating it. If it does, drop the table first.
+   * The time taken is recorded in {@link Database#metrics}.
    *
    * @throws SQLException
    */
 
   public void initialise() throws SQLException {
+    long start = System.nanoTime();
     if (alreadyExists()) {
       drop();
       create();
     } else {
       create();
     }
+    Database.metrics.record(this.name, "initialise", 0, start);
   }
 
   /**
@@ -74,16 +315,7 @@ abstract class Table {
    */
 
   public boolean alreadyExists() throws SQLException {
-    boolean exists = false;
-    ResultSet rs = Database.connection.getMetaData().getTables(null, null, this.name, null);
-    while (rs.next()) {
-        String name = rs.getString("TABLE_NAME");
-        if (name != null && name.equals(this.name)) {
-          exists = true;
-          break;
-        }
-    }
-    return exists;
+    return Database.exists(this.connection, this.name, null);
   }
 
   /**
@@ -93,7 +325,7 @@ abstract class Table {
    */
 
   public void drop() throws SQLException {
-    Statement st = Database.connection.createStatement();
+    Statement st = this.connection.createStatement();
     st.execute("DROP TABLE " + this.name + " CASCADE;");
     st.close();
   }
@@ -105,18 +337,52 @@ abstract class Table {
    */
 
   public void create() throws SQLException {
-    Statement st = Database.connection.createStatement();
+    Statement st = this.connection.createStatement();
     String createQuery;
 
     if (isTempTable()) {
-      createQuery = "CREATE TEMP TABLE " + this.name + " (" + this.definition + ");";
+      createQuery = "CREATE TEMP TABLE " + this.name + " (" + createDefinition() + ");";
+    } else if (Database.isUnloggedTables()) {
+      createQuery = "CREATE UNLOGGED TABLE " + this.name + " (" + createDefinition() + ");";
     } else {
-      createQuery = "CREATE TABLE " + this.name + " (" + this.definition + ");";
+      createQuery = "CREATE TABLE " + this.name + " (" + createDefinition() + ");";
     }
     st.execute(createQuery);
+
+    if (!Database.isDeferredConstraints()) {
+      for (String index : indexes()) {
+        st.execute("CREATE INDEX ON " + this.name + " (" + index + ");");
+      }
+    }
     st.close();
   }
 
+  /**
+   * Splits the definition at the commas between its column definitions and table constraints.
+   */
+  private List<String> clauses() {
+    List<String> clauses = new ArrayList<String>();
+    int depth = 0;
+    int start = 0;
+    for (int i = 0; i <= this.definition.length(); i++) {
+      char c = i < this.definition.length() ? this.definition.charAt(i) : ',';
+      if (c == '(') {
+        depth++;
+      } else if (c == ')') {
+        depth--;
+      } else if (c == ',' && depth == 0) {
+        clauses.add(this.definition.substring(start, i).trim());
+        start = i + 1;
+      }
+    }
+    return clauses;
+  }
+
+  private static boolean isConstraint(String clause) {
+    return clause.startsWith("PRIMARY KEY") || clause.startsWith("FOREIGN KEY")
+        || clause.startsWith("UNIQUE") || clause.startsWith("CHECK") || clause.startsWith("CONSTRAINT");
+  }
+
   /**
    * Checks if table is temporary or not.
    *
@@ -137,17 +403,20 @@ abstract class Table {
 
 abstract class View {
 
+  final Connection connection;
   final String name;
   final String definition;
 
   /**
    * Constructs a new view.
    *
+   * @param connection Connection the view is created on.
    * @param name String represents name of the view.
    * @param definition String showing the definition of the view creation.
    * @throws SQLException
    */
-  public View(String name, String definition) throws SQLException {
+  public View(Connection connection, String name, String definition) throws SQLException {
+    this.connection = connection;
     this.name = name;
     this.definition = definition;
     initialise();
@@ -155,17 +424,20 @@ abstract class View {
 
   /**
    * Checks if view already exists before creating it. If it does, drop the view first.
+   * The time taken is recorded in {@link Database#metrics}.
    *
    * @throws SQLException
    */
 
   public void initialise() throws SQLException {
+    long start = System.nanoTime();
     if (alreadyExists()) {
       drop();
       create();
     } else {
       create();
     }
+    Database.metrics.record(this.name, "create", 0, start);
   }
 
   /**
@@ -176,16 +448,7 @@ abstract class View {
    */
 
   public boolean alreadyExists() throws SQLException {
-    boolean exists = false;
-    ResultSet rs = Database.connection.getMetaData().getTables(null, null, this.name, new String[]{"VIEW"});
-    while (rs.next()) {
-        String name = rs.getString("TABLE_NAME");
-        if (name != null && name.equals(this.name)) {
-          exists = true;
-          break;
-        }
-    }
-    return exists;
+    return Database.exists(this.connection, this.name, new String[]{"VIEW"});
   }
 
   /**
@@ -195,7 +458,7 @@ abstract class View {
    */
 
   public void drop() throws SQLException {
-    Statement st = Database.connection.createStatement();
+    Statement st = this.connection.createStatement();
     st.execute("DROP VIEW " + this.name + " CASCADE;");
     st.close();
   }
@@ -207,7 +470,7 @@ abstract class View {
    */
 
   public void create() throws SQLException {
-    Statement st = Database.connection.createStatement();
+    Statement st = this.connection.createStatement();
     st.execute("CREATE VIEW " + this.name + " AS " + this.definition + ";");
     st.close();
   }
@@ -215,592 +478,6313 @@ abstract class View {
 }
 
 /**
- * Class to represent the mapping table in database. Implements {@link Table} abstract class.
+ * <h1>Interface for writing rows into a table one field at a time.</h1>
  *
  * @author Hayder
  * @version 1.0
- *
- * @see Table
  */
 
-class Mapping extends Table {
+interface RowLoader {
 
-  public final static String name = "mapping";
-  public final static String definition = "tld VARCHAR(15), description VARCHAR(200) NOT NULL, PRIMARY KEY (tld)";
-  public final static boolean isTemp = false;
+  RowLoader field(int value);
 
-  public final static String insertQuery = "INSERT INTO mapping (tld, description) VALUES (?, ?) "
-      + "ON CONFLICT DO NOTHING";
+  RowLoader field(String value);
 
-  public String filepath = new File("").getAbsolutePath();
-  public String mapping_file = filepath + "/mapping";
+  void endRow() throws SQLException;
 
-  /**
-   * Constructor calls parent constructor to set up table.
-   *
-   * @throws SQLException
-   *
-   * @see Table#Table(String, String, boolean)
-   */
+  long finish() throws SQLException;
 
-  public Mapping() throws SQLException {
-    super(name, definition, isTemp);
-    insertData();
-  }
+  void cancel() throws SQLException;
 
   /**
-   * Inserts data from mapping file into table.
+   * Opens the loader selected with the <code>loader</code> system property.
    *
+   * @param connection Connection to load over.
+   * @param table String represents name of the table to load.
+   * @param columns String represents comma separated list of columns in the order fields are added.
+   * @return a {@link CopyLoader} or a {@link BatchLoader}.
    * @throws SQLException
    */
-
-  @Override
-  public void insertData() throws SQLException {
-	  PreparedStatement preparedStatement;
-	  preparedStatement = Database.connection.prepareStatement(insertQuery);
-
-	  BufferedReader reader;
-
-	    try {
-	      reader = new BufferedReader(new FileReader(mapping_file));
-	      String line = reader.readLine();
-	      while (line != null) {
-
-	        String[] values = line.split("\t");
-	        int i = 1;
-	        for (String value : values) {
-	        	preparedStatement.setString(i++, value);
-	        }
-
-	        preparedStatement.addBatch();
-
-	        line = reader.readLine();
-	      }
-
-	      preparedStatement.executeBatch();
-	      preparedStatement.close();
-	      reader.close();
-
-	    } catch (IOException e) {
-	      e.printStackTrace();
-	    	System.out.println("Error reading file");
-	    }
-
-
+  static RowLoader open(Connection connection, String table, String columns) throws SQLException {
+    if (Database.isCopyLoader()) {
+      return new CopyLoader(connection, table, columns);
+    }
+    return new BatchLoader(connection, table, columns);
   }
 
 }
 
 /**
- * Class to represent the url_temp table in database. Implements {@link Table} abstract class.
+ * <h1>Class to insert rows into a table with JDBC batches.</h1>
+ *
+ * Batches are executed every {@link #batchSize} rows.
  *
  * @author Hayder
  * @version 1.0
- *
- * @see Table
  */
 
-class UrlTemp extends Table {
-
-  public final static String name = "url_temp";
-  public final static String definition = "pos INT,\n" +
-			"  domain_name VARCHAR(50),\n" +
-			"  tld1 VARCHAR(15) NOT NULL,\n" +
-			"  tld2 VARCHAR(15)";
-
-  public final static boolean isTemp = true;
+class BatchLoader implements RowLoader {
 
-  public String insertQuery = "INSERT INTO url_temp (pos, domain_name, tld1, tld2) "
-  		+ "VALUES (?, ?, ?, ?)";
+  public final static int batchSize = 10000;
 
-  public String filepath = new File("").getAbsolutePath();
-  public String file = filepath + "/TopURLs";
+  private final String table;
+  private final PreparedStatement preparedStatement;
+  private int field = 1;
+  private int pending = 0;
+  private long rows = 0;
 
   /**
-   * Constructor calls parent constructor to set up table.
+   * Prepares an insert into the given columns of a table.
    *
+   * @param connection Connection to insert over.
+   * @param table String represents name of the table to insert into.
+   * @param columns String represents comma separated list of columns in the order fields are added.
    * @throws SQLException
-   *
-   * @see Table#Table(String, String, boolean)
    */
-
-  public UrlTemp() throws SQLException {
-    super(name, definition, isTemp);
-    insertData();
+  public BatchLoader(Connection connection, String table, String columns) throws SQLException {
+    StringBuilder values = new StringBuilder("?");
+    for (int i = 1; i < columns.split(",").length; i++) {
+      values.append(", ?");
+    }
+    this.table = table;
+    this.preparedStatement = connection.prepareStatement(
+        "INSERT INTO " + table + " (" + columns + ") VALUES (" + values + ")");
   }
 
-  /**
-   * Inserts data from TopURLs file into table.
-   *
-   * @throws SQLException
-   */
-
   @Override
-  public void insertData() throws SQLException {
-  	  PreparedStatement preparedStatement;
-  	  preparedStatement = Database.connection.prepareStatement(insertQuery);
-
-  	  Scanner scanner;
-
-  	    try {
-  	    	scanner = new Scanner(new FileInputStream(file));
-
-  		    while(scanner.hasNextLine()) {
-  		    	String line = scanner.nextLine();
-  		    	String[] values = line.split("\t");
-  		        int id = Integer.parseInt(values[0]);
-  		        String domain = values[1];
-  		        String tld1 = values[2];
-  		        String tld2;
-
-  		        // check if the line has two tlds or one and handle accordingly
-  		        if (values.length == 4) {
-  		        	tld2 = values[3];
-  		        } else {
-  		        	tld2 = "";
-  		        }
-
-  		        preparedStatement.setInt(1, id);
-  		        preparedStatement.setString(2, domain);
-  		        preparedStatement.setString(3, tld1);
-  		        preparedStatement.setString(4, tld2);
-  		        preparedStatement.addBatch();
-  		    }
+  public BatchLoader field(int value) {
+    try {
+      preparedStatement.setInt(field++, value);
+    } catch (SQLException e) {
+      throw new IllegalStateException(e);
+    }
+    return this;
+  }
 
-  	      preparedStatement.executeBatch();
-  	      preparedStatement.close();
-  	      scanner.close();
+  @Override
+  public BatchLoader field(String value) {
+    try {
+      preparedStatement.setString(field++, value);
+    } catch (SQLException e) {
+      throw new IllegalStateException(e);
+    }
+    return this;
+  }
 
-  	    } catch (IOException e) {
-  	      e.printStackTrace();
-  	    	System.out.println("Error reading file");
-  	    }
+  @Override
+  public void endRow() throws SQLException {
+    preparedStatement.addBatch();
+    field = 1;
+    rows++;
+    if (++pending == batchSize) {
+      Database.metrics.executeBatch(table, preparedStatement);
+      pending = 0;
+    }
+  }
 
+  @Override
+  public long finish() throws SQLException {
+    if (pending > 0) {
+      Database.metrics.executeBatch(table, preparedStatement);
+      pending = 0;
     }
+    preparedStatement.close();
+    return rows;
+  }
+
+  @Override
+  public void cancel() throws SQLException {
+    preparedStatement.close();
+  }
 
 }
 
 /**
- * Class to represent the tld table in database. Implements {@link Table} abstract class.
+ * <h1>Class to stream rows into a table using the PostgreSQL COPY protocol.</h1>
+ *
+ * Rows are encoded in the COPY text format and written to the server in chunks of at most
+ * {@link #chunkSize} characters, so memory use stays bounded regardless of input size.
  *
  * @author Hayder
  * @version 1.0
- *
- * @see Table
  */
 
-class Tld extends Table {
+class CopyLoader implements RowLoader {
 
-  public final static String name = "tld";
-  public final static String definition = "tld_id INT, tld1 VARCHAR(15) NOT NULL, tld2 VARCHAR(15), PRIMARY KEY (tld_id)";
-  public final static boolean isTemp = false;
+  public final static int chunkSize = 1 << 16;
 
-  public final static String insertQuery = "SELECT row_number() OVER (ORDER BY min(pos)), tld1, tld2\n" +
-  "FROM url_temp\n" +
-  "GROUP BY tld1, tld2";
+  private final CopyIn copyIn;
+  private final StringBuilder buffer = new StringBuilder(chunkSize + 256);
+  private boolean firstField = true;
+  private long rows = 0;
 
   /**
-   * Constructor calls parent constructor to set up table.
+   * Starts a COPY FROM STDIN into the given columns of a table.
    *
+   * @param connection Connection to copy over.
+   * @param table String represents name of the table to copy into.
+   * @param columns String represents comma separated list of columns in the order fields are added.
    * @throws SQLException
+   */
+  public CopyLoader(Connection connection, String table, String columns) throws SQLException {
+    this.copyIn = connection.unwrap(PGConnection.class).getCopyAPI()
+        .copyIn("COPY " + table + " (" + columns + ") FROM STDIN");
+  }
+
+  /**
+   * Adds an integer field to the current row.
    *
-   * @see Table#Table(String, String, boolean)
+   * @param value int to add.
+   * @return this loader.
    */
+  @Override
+  public CopyLoader field(int value) {
+    separate();
+    buffer.append(value);
+    return this;
+  }
 
-  public Tld() throws SQLException {
-    super(name, definition, isTemp);
-    insertData();
+  /**
+   * Adds a text field to the current row, escaping it for the COPY text format.
+   *
+   * @param value String to add, null is written as SQL NULL.
+   * @return this loader.
+   */
+  @Override
+  public CopyLoader field(String value) {
+    separate();
+    if (value == null) {
+      buffer.append("\\N");
+      return this;
+    }
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      switch (c) {
+        case '\\': buffer.append("\\\\"); break;
+        case '\t': buffer.append("\\t"); break;
+        case '\n': buffer.append("\\n"); break;
+        case '\r': buffer.append("\\r"); break;
+        default: buffer.append(c);
+      }
+    }
+    return this;
   }
 
   /**
-   * Inserts data from url table into this table.
+   * Ends the current row and flushes the buffer to the server once it reaches the chunk size.
    *
    * @throws SQLException
    */
-
   @Override
-  public void insertData() throws SQLException {
-	  Statement st = Database.connection.createStatement();
-	  st.executeUpdate("INSERT INTO " + name + " " + insertQuery + " ON CONFLICT DO NOTHING;");
-	  st.close();
+  public void endRow() throws SQLException {
+    buffer.append('\n');
+    firstField = true;
+    rows++;
+    if (buffer.length() >= chunkSize) {
+      flush();
+    }
   }
 
-}
+  /**
+   * Flushes any buffered rows and completes the COPY.
+   *
+   * @return number of rows copied into the table.
+   * @throws SQLException
+   */
+  @Override
+  public long finish() throws SQLException {
+    flush();
+    copyIn.endCopy();
+    return rows;
+  }
 
-/**
- * Class to represent the domain table in database. Implements {@link Table} abstract class.
+  /**
+   * Aborts the COPY, discarding every row sent so far.
+   *
+   * @throws SQLException
+   */
+  @Override
+  public void cancel() throws SQLException {
+    if (copyIn.isActive()) {
+      copyIn.cancelCopy();
+    }
+  }
+
+  private void separate() {
+    if (firstField) {
+      firstField = false;
+    } else {
+      buffer.append('\t');
+    }
+  }
+
+  private void flush() throws SQLException {
+    if (buffer.length() > 0) {
+      byte[] bytes = buffer.toString().getBytes(StandardCharsets.UTF_8);
+      copyIn.writeToCopy(bytes, 0, bytes.length);
+      buffer.setLength(0);
+    }
+  }
+
+}
+
+/**
+ * <h1>Class to load a text file through separate reading, parsing and writing stages.</h1>
+ *
+ * A reader thread decompresses the file and cuts it into chunks of {@link #chunkLines} lines, a
+ * parser thread turns each chunk into rows and the calling thread writes them with a
+ * {@link RowLoader}. The stages are connected by queues holding at most {@link #queueDepth}
+ * chunks, so a slow stage holds the others back instead of letting the file pile up in memory,
+ * while decompression and parsing carry on during each round trip to the server. Chunks keep the
+ * order of the file.
+ *
+ * Files may be plain, gzip or zstd compressed, which is recognised from their first bytes. If the
+ * named file does not exist, the same name ending in <code>.gz</code> or <code>.zst</code> is used.
  *
  * @author Hayder
  * @version 1.0
- *
- * @see Table
  */
 
-class Domain extends Table {
+class IngestPipeline {
 
-  public final static String name = "domain";
-  public final static String definition = "domain_name VARCHAR(50), PRIMARY KEY (domain_name)";
-  public final static boolean isTemp = false;
+  public final static int chunkLines = 4096;
+  public final static int queueDepth = 8;
+  public final static int pollMillis = 100;
 
-  public final static String insertQuery = "SELECT domain_name\n" +
-      "FROM url_temp\n" +
-      "GROUP BY domain_name\n" +
-      "ORDER BY domain_name";
+  public final static String[] suffixes = {"", ".gz", ".zst"};
 
   /**
-   * Constructor calls parent constructor to set up table.
+   * Turns one line of the file into the fields of a row, each an Integer or a String.
+   */
+  interface LineParser {
+    Object[] parse(String line);
+  }
+
+  private final static List<String> endOfLines = new ArrayList<String>(0);
+  private final static List<Object[]> endOfRows = new ArrayList<Object[]>(0);
+
+  /**
+   * Loads every line of a file. The loader is finished when all rows are written and cancelled if
+   * any stage fails.
    *
+   * @param file String represents path of the file, optionally without its compression suffix.
+   * @param parser LineParser returning the fields of a line, or null to skip it. Only called from
+   *     the parser thread, one line at a time in file order.
+   * @param loader RowLoader the rows are written with.
+   * @return number of rows written.
    * @throws SQLException
+   * @throws IOException
+   */
+  public static long run(String file, LineParser parser, RowLoader loader) throws SQLException, IOException {
+    BlockingQueue<List<String>> lines = new ArrayBlockingQueue<List<String>>(queueDepth);
+    BlockingQueue<List<Object[]>> rows = new ArrayBlockingQueue<List<Object[]>>(queueDepth);
+    ExecutorService stages = Executors.newFixedThreadPool(2);
+    boolean finished = false;
+
+    try {
+      Future<?> reading = stages.submit(() -> {
+        read(file, lines);
+        return null;
+      });
+      Future<?> parsing = stages.submit(() -> {
+        parse(lines, reading, parser, rows);
+        return null;
+      });
+
+      List<Object[]> chunk = take(rows, parsing);
+      while (chunk != endOfRows) {
+        for (Object[] row : chunk) {
+          for (Object field : row) {
+            if (field instanceof Integer) {
+              loader.field((Integer) field);
+            } else {
+              loader.field((String) field);
+            }
+          }
+          loader.endRow();
+        }
+        chunk = take(rows, parsing);
+      }
+
+      long written = loader.finish();
+      finished = true;
+      return written;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted loading " + file, e);
+    } catch (ExecutionException e) {
+      // a parser stage that gave up because the reader failed passes on the reader's exception
+      Throwable cause = e.getCause();
+      while (cause instanceof ExecutionException) {
+        cause = cause.getCause();
+      }
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new IOException(cause);
+    } finally {
+      // interrupts any stage still blocked on a queue the writer no longer drains
+      stages.shutdownNow();
+      if (!finished) {
+        loader.cancel();
+      }
+    }
+  }
+
+  /**
+   * Opens a file for reading, decompressing it if it starts with a gzip or zstd header.
    *
-   * @see Table#Table(String, String, boolean)
+   * @param file String represents path of the file, optionally without its compression suffix.
+   * @return stream of the uncompressed contents.
+   * @throws IOException
    */
+  public static InputStream open(String file) throws IOException {
+    InputStream in = new BufferedInputStream(new FileInputStream(locate(file)), 1 << 16);
+    in.mark(4);
+    byte[] magic = in.readNBytes(4);
+    in.reset();
+
+    if (isGzip(magic)) {
+      return new GZIPInputStream(in, 1 << 16);
+    }
+    if (isZstd(magic)) {
+      return new ZstdInputStream(in);
+    }
+    return in;
+  }
 
-  public Domain() throws SQLException {
-    super(name, definition, isTemp);
-    insertData();
+  /**
+   * Opens a file for reading lines, decompressing it if needed.
+   *
+   * @param file String represents path of the file, optionally without its compression suffix.
+   * @return reader of the uncompressed contents.
+   * @throws IOException
+   */
+  public static BufferedReader reader(String file) throws IOException {
+    return new BufferedReader(new InputStreamReader(open(file), StandardCharsets.UTF_8), 1 << 16);
   }
 
   /**
-   * Inserts data from url table into this table.
+   * Checks if a file is gzip or zstd compressed, so it can only be read through the pipeline.
+   *
+   * @param file String represents path of the file, optionally without its compression suffix.
+   * @return true if the file exists and is compressed, otherwise return false.
+   */
+  public static boolean isCompressed(String file) {
+    try (InputStream in = new FileInputStream(locate(file))) {
+      byte[] magic = in.readNBytes(4);
+      return isGzip(magic) || isZstd(magic);
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Finds the file that {@link #open} reads.
+   *
+   * @param file String represents path of the file, optionally without its compression suffix.
+   * @return the file, or the given path if no candidate exists.
+   */
+  static File locate(String file) {
+    for (String suffix : suffixes) {
+      File candidate = new File(file + suffix);
+      if (candidate.isFile()) {
+        return candidate;
+      }
+    }
+    return new File(file);
+  }
+
+  private static boolean isGzip(byte[] magic) {
+    return magic.length >= 2 && (magic[0] & 0xff) == 0x1f && (magic[1] & 0xff) == 0x8b;
+  }
+
+  private static boolean isZstd(byte[] magic) {
+    return magic.length == 4 && (magic[0] & 0xff) == 0x28 && (magic[1] & 0xff) == 0xb5
+        && (magic[2] & 0xff) == 0x2f && (magic[3] & 0xff) == 0xfd;
+  }
+
+  private static void read(String file, BlockingQueue<List<String>> lines)
+      throws IOException, InterruptedException {
+    try (BufferedReader reader = reader(file)) {
+      List<String> chunk = new ArrayList<String>(chunkLines);
+      String line = reader.readLine();
+      while (line != null) {
+        chunk.add(line);
+        if (chunk.size() == chunkLines) {
+          lines.put(chunk);
+          chunk = new ArrayList<String>(chunkLines);
+        }
+        line = reader.readLine();
+      }
+      if (!chunk.isEmpty()) {
+        lines.put(chunk);
+      }
+    }
+    lines.put(endOfLines);
+  }
+
+  private static void parse(BlockingQueue<List<String>> lines, Future<?> reading, LineParser parser,
+      BlockingQueue<List<Object[]>> rows) throws InterruptedException, ExecutionException {
+    List<String> chunk = take(lines, reading);
+    while (chunk != endOfLines) {
+      List<Object[]> parsed = new ArrayList<Object[]>(chunk.size());
+      for (String line : chunk) {
+        Object[] row = parser.parse(line);
+        if (row != null) {
+          parsed.add(row);
+        }
+      }
+      rows.put(parsed);
+      chunk = take(lines, reading);
+    }
+    rows.put(endOfRows);
+  }
+
+  /**
+   * Takes the next chunk from a queue. A stage that fails never sends its end marker, so while
+   * waiting the producing stage is checked and its failure rethrown.
+   */
+  private static <T> T take(BlockingQueue<T> queue, Future<?> producer)
+      throws InterruptedException, ExecutionException {
+    T chunk = queue.poll(pollMillis, TimeUnit.MILLISECONDS);
+    while (chunk == null) {
+      if (producer.isDone()) {
+        producer.get();
+      }
+      chunk = queue.poll(pollMillis, TimeUnit.MILLISECONDS);
+    }
+    return chunk;
+  }
+
+}
+
+/**
+ * <h1>Class to parse a TopURLs file in parallel from a memory mapped buffer.</h1>
+ *
+ * The file is mapped with {@link FileChannel#map} and cut into newline aligned segments which are
+ * parsed concurrently. Parsing only records the position and the byte offsets of each field, text
+ * is decoded when a loader asks for it.
+ *
+ * @author Hayder
+ * @version 1.0
+ */
+
+class TopUrlsParser {
+
+  public final static int minSegmentSize = 1 << 20;
+  public final static int maxSegmentSize = 1 << 28;
+
+  /**
+   * Receives each parsed row of a TopURLs file.
+   */
+  interface RowHandler {
+    void row(int position, String domain, String tld1, String tld2) throws SQLException;
+  }
+
+  /**
+   * Maps a TopURLs file and parses all of its segments in parallel.
+   *
+   * @param file String represents path of the TopURLs file.
+   * @return the parsed segments in file order.
+   * @throws IOException
+   */
+  public static Segment[] parse(String file) throws IOException {
+    List<Segment> segments = new ArrayList<Segment>();
+
+    try (FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ)) {
+      long size = channel.size();
+      long segmentSize = Math.max(minSegmentSize,
+          Math.min(maxSegmentSize, size / (4 * Runtime.getRuntime().availableProcessors()) + 1));
+      long start = 0;
+      while (start < size) {
+        long end = lineEnd(channel, Math.min(start + segmentSize, size), size);
+        segments.add(new Segment(channel.map(FileChannel.MapMode.READ_ONLY, start, end - start)));
+        start = end;
+      }
+    }
+
+    Segment[] parsed = segments.toArray(new Segment[0]);
+    Arrays.stream(parsed).parallel().forEach(Segment::parse);
+    return parsed;
+  }
+
+  /**
+   * Passes every row of the parsed segments to a handler in file order.
    *
+   * @param segments Segment array returned by {@link #parse(String)}.
+   * @param handler RowHandler to receive the rows.
+   * @return number of rows handled.
    * @throws SQLException
    */
+  public static long forEach(Segment[] segments, RowHandler handler) throws SQLException {
+    long rows = 0;
+    for (Segment segment : segments) {
+      for (int i = 0; i < segment.size(); i++) {
+        handler.row(segment.position(i), segment.domain(i), segment.tld1(i), segment.tld2(i));
+      }
+      rows += segment.size();
+    }
+    return rows;
+  }
+
+  /**
+   * Finds the offset just after the first newline at or after the given offset.
+   */
+  private static long lineEnd(FileChannel channel, long offset, long size) throws IOException {
+    if (offset >= size) {
+      return size;
+    }
+    ByteBuffer chunk = ByteBuffer.allocate(4096);
+    long base = offset - 1;
+    while (base < size) {
+      chunk.clear();
+      int read = channel.read(chunk, base);
+      if (read <= 0) {
+        break;
+      }
+      for (int i = 0; i < read; i++) {
+        if (chunk.get(i) == '\n') {
+          return base + i + 1;
+        }
+      }
+      base += read;
+    }
+    return size;
+  }
+
+  /**
+   * <h1>Newline aligned part of a mapped TopURLs file.</h1>
+   *
+   * Rows are stored as a position and six offsets per row, the start and end of the domain,
+   * tld1 and tld2 fields.
+   */
+  static class Segment {
+
+    private final ByteBuffer buffer;
+    private int size = 0;
+    private int[] positions;
+    private int[] bounds;
+    private byte[] scratch = new byte[64];
+
+    Segment(ByteBuffer buffer) {
+      this.buffer = buffer;
+      int estimate = Math.max(16, buffer.limit() / 16);
+      this.positions = new int[estimate];
+      this.bounds = new int[estimate * 6];
+    }
+
+    /**
+     * Parses every line of the segment, skipping blank lines.
+     */
+    void parse() {
+      int end = buffer.limit();
+      int i = 0;
+      while (i < end) {
+        int lineEnd = i;
+        while (lineEnd < end && buffer.get(lineEnd) != '\n') {
+          lineEnd++;
+        }
+        int next = lineEnd + 1;
+        if (lineEnd > i && buffer.get(lineEnd - 1) == '\r') {
+          lineEnd--;
+        }
+        if (lineEnd > i) {
+          parseLine(i, lineEnd);
+        }
+        i = next;
+      }
+    }
+
+    private void parseLine(int start, int end) {
+      int p = start;
+      int position = 0;
+      while (p < end && buffer.get(p) != '\t') {
+        int digit = buffer.get(p) - '0';
+        if (digit < 0 || digit > 9) {
+          throw new IllegalArgumentException("Invalid position in line: " + text(start, end));
+        }
+        position = position * 10 + digit;
+        p++;
+      }
+      if (p == start || p == end) {
+        throw new IllegalArgumentException("Invalid line: " + text(start, end));
+      }
+
+      if (size == positions.length) {
+        positions = Arrays.copyOf(positions, size * 2);
+        bounds = Arrays.copyOf(bounds, size * 12);
+      }
+
+      int b = size * 6;
+      bounds[b] = p + 1;
+      bounds[b + 1] = next(bounds[b], end);
+      bounds[b + 2] = Math.min(bounds[b + 1] + 1, end);
+      bounds[b + 3] = next(bounds[b + 2], end);
+      bounds[b + 4] = Math.min(bounds[b + 3] + 1, end);
+      bounds[b + 5] = next(bounds[b + 4], end);
+
+      // as with String.split in UrlTemp#insertData, tld2 is only kept when it is the last field
+      for (int q = bounds[b + 5]; q < end; q++) {
+        if (buffer.get(q) != '\t') {
+          bounds[b + 4] = bounds[b + 5];
+          break;
+        }
+      }
+      positions[size++] = position;
+    }
+
+    private int next(int p, int end) {
+      while (p < end && buffer.get(p) != '\t') {
+        p++;
+      }
+      return p;
+    }
+
+    private String text(int from, int to) {
+      int length = to - from;
+      if (length <= 0) {
+        return "";
+      }
+      if (scratch.length < length) {
+        scratch = new byte[length];
+      }
+      buffer.get(from, scratch, 0, length);
+      return new String(scratch, 0, length, StandardCharsets.UTF_8);
+    }
+
+    public int size() {
+      return size;
+    }
+
+    public int position(int row) {
+      return positions[row];
+    }
+
+    public String domain(int row) {
+      return text(bounds[row * 6], bounds[row * 6 + 1]);
+    }
+
+    public String tld1(int row) {
+      return text(bounds[row * 6 + 2], bounds[row * 6 + 3]);
+    }
+
+    public String tld2(int row) {
+      return text(bounds[row * 6 + 4], bounds[row * 6 + 5]);
+    }
 
-  @Override
-  public void insertData() throws SQLException {
-	  Statement st = Database.connection.createStatement();
-	  st.executeUpdate("INSERT INTO " + name + " " + insertQuery + " ON CONFLICT DO NOTHING;");
-	  st.close();
   }
 
 }
 
 /**
- * Class to represent the url table in database. Implements {@link Table} abstract class.
+ * <h1>Class to map long keys to int values without boxing.</h1>
+ *
+ * Open addressing hash table with linear probing. Values must not be negative, {@link #get(long)}
+ * returns -1 for missing keys.
  *
  * @author Hayder
  * @version 1.0
+ */
+
+class LongIntMap {
+
+  private long[] keys;
+  private int[] values;
+  private boolean[] used;
+  private int size = 0;
+
+  /**
+   * Constructs a new map.
+   *
+   * @param expected int represents the number of keys expected.
+   */
+  public LongIntMap(int expected) {
+    int capacity = Integer.highestOneBit(Math.max(16, expected * 2 - 1)) << 1;
+    keys = new long[capacity];
+    values = new int[capacity];
+    used = new boolean[capacity];
+  }
+
+  /**
+   * Gets the value stored for a key.
+   *
+   * @param key long to look up.
+   * @return the value, or -1 if the key is not in the map.
+   */
+  public int get(long key) {
+    int mask = keys.length - 1;
+    for (int i = slot(key, mask); used[i]; i = (i + 1) & mask) {
+      if (keys[i] == key) {
+        return values[i];
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Stores a value for a key, replacing any previous value.
+   *
+   * @param key long to store.
+   * @param value int to store, must not be negative.
+   */
+  public void put(long key, int value) {
+    if ((size + 1) * 2 > keys.length) {
+      grow();
+    }
+    int mask = keys.length - 1;
+    int i = slot(key, mask);
+    while (used[i]) {
+      if (keys[i] == key) {
+        values[i] = value;
+        return;
+      }
+      i = (i + 1) & mask;
+    }
+    used[i] = true;
+    keys[i] = key;
+    values[i] = value;
+    size++;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  private static int slot(long key, int mask) {
+    long h = key * 0x9E3779B97F4A7C15L;
+    return (int) (h ^ (h >>> 32)) & mask;
+  }
+
+  private void grow() {
+    long[] oldKeys = keys;
+    int[] oldValues = values;
+    boolean[] oldUsed = used;
+    keys = new long[oldKeys.length * 2];
+    values = new int[oldKeys.length * 2];
+    used = new boolean[oldKeys.length * 2];
+    size = 0;
+    for (int i = 0; i < oldKeys.length; i++) {
+      if (oldUsed[i]) {
+        put(oldKeys[i], oldValues[i]);
+      }
+    }
+  }
+
+}
+
+/**
+ * <h1>Class to resolve the suffix of a hostname with a trie of reversed labels.</h1>
  *
- * @see Table
+ * Built from the tlds in the mapping file and, optionally, the ICANN section of a public suffix
+ * list, including its <code>*.</code> wildcard and <code>!</code> exception rules. A hostname is
+ * walked from its rightmost label, so its effective suffix, of any depth, and the deepest suffix
+ * the mapping describes are found in one pass. Labels are matched ignoring case.
+ *
+ * @author Hayder
+ * @version 1.0
  */
 
-class Url extends Table {
+class SuffixTrie {
 
-  public final static String name = "url";
-  public final static String definition = "domain_name VARCHAR(50) NOT NULL, tld_id INT NOT NULL,\n" +
-			"  position INT NOT NULL, PRIMARY KEY (domain_name, tld_id), "
-			+ "FOREIGN KEY (domain_name) REFERENCES domain,\n" +
-			"  FOREIGN KEY (tld_id) REFERENCES tld,\n" +
-			"  UNIQUE (position),\n" +
-			"  CHECK (position >= 1 AND position <= 10000)";
+  public final static String endOfIcann = "// ===END ICANN DOMAINS===";
 
-  public final static boolean isTemp = false;
+  private static class Node {
+    final Map<String, Node> children = new HashMap<String, Node>(4);
+    boolean suffix;
+    boolean wildcard;
+    boolean exception;
+    String described;
+  }
 
-  public final static String insertQuery = "INSERT INTO url (position, domain_name, tld_id) VALUES (?, ?, ?) ON CONFLICT DO NOTHING";
+  private final Node root = new Node();
+
+  /**
+   * Builds the trie for a load.
+   *
+   * @param mappingFile String represents path of the mapping file, optionally without its compression suffix.
+   * @param suffixFile String represents path of a public suffix list, or null for the mapping alone.
+   * @return the trie.
+   * @throws IOException
+   */
+  public static SuffixTrie read(String mappingFile, String suffixFile) throws IOException {
+    SuffixTrie trie = new SuffixTrie();
+    try (BufferedReader reader = IngestPipeline.reader(mappingFile)) {
+      String line = reader.readLine();
+      while (line != null) {
+        trie.describe(line.split("\t")[0]);
+        line = reader.readLine();
+      }
+    }
+    if (suffixFile != null) {
+      try (BufferedReader reader = IngestPipeline.reader(suffixFile)) {
+        String line = reader.readLine();
+        while (line != null && !line.startsWith(endOfIcann)) {
+          String rule = line.trim();
+          if (!rule.isEmpty() && !rule.startsWith("//")) {
+            trie.add(rule.split("\\s")[0]);
+          }
+          line = reader.readLine();
+        }
+      }
+    }
+    return trie;
+  }
+
+  /**
+   * Adds a public suffix rule, e.g. <code>co.uk</code>, <code>*.ck</code> or <code>!www.ck</code>.
+   * Rules in Unicode are stored in their ASCII form, as hostnames are written.
+   *
+   * @param rule String represents the rule.
+   */
+  public void add(String rule) {
+    boolean exception = rule.startsWith("!");
+    String suffix = exception ? rule.substring(1) : rule;
+    boolean wildcard = suffix.startsWith("*.");
+    if (wildcard) {
+      suffix = suffix.substring(2);
+    }
+    try {
+      suffix = IDN.toASCII(suffix);
+    } catch (IllegalArgumentException e) {
+      return;
+    }
+
+    Node node = insert(suffix);
+    if (exception) {
+      node.exception = true;
+    } else if (wildcard) {
+      node.wildcard = true;
+    } else {
+      node.suffix = true;
+    }
+  }
+
+  /**
+   * Adds a suffix described in the mapping table.
+   *
+   * @param suffix String represents the tld as written in the mapping file, e.g. <code>uk</code>.
+   */
+  public void describe(String suffix) {
+    Node node = insert(suffix);
+    node.suffix = true;
+    if (node.described == null) {
+      node.described = suffix;
+    }
+  }
+
+  /**
+   * Finds the effective suffix of a hostname. The longest matching rule wins, an exception rule
+   * beats the others, and a rightmost label no rule knows is a suffix by itself.
+   *
+   * @param labels String array of the labels of the hostname, left to right.
+   * @return number of labels in the suffix, at most one less than the number of labels.
+   */
+  public int suffixLength(String[] labels) {
+    int length = 1;
+    Node node = root;
+    for (int depth = 0; depth < labels.length; depth++) {
+      Node child = node.children.get(key(labels[labels.length - 1 - depth]));
+      if (child != null && child.exception) {
+        length = depth;
+        break;
+      }
+      if (node.wildcard) {
+        length = depth + 1;
+      }
+      if (child == null) {
+        break;
+      }
+      node = child;
+      if (node.suffix) {
+        length = depth + 1;
+      }
+    }
+    // a hostname that is itself a suffix keeps its leftmost label as the domain
+    return Math.min(length, labels.length - 1);
+  }
+
+  /**
+   * Finds the deepest part of a suffix the mapping describes.
+   *
+   * @param labels String array of labels, left to right, ending with the suffix.
+   * @param length int represents number of labels in the suffix.
+   * @return the tld in the mapping table, or null if the mapping describes no part of the suffix.
+   */
+  public String described(String[] labels, int length) {
+    String described = null;
+    Node node = root;
+    for (int depth = 0; depth < length && node != null; depth++) {
+      node = node.children.get(key(labels[labels.length - 1 - depth]));
+      if (node != null && node.described != null) {
+        described = node.described;
+      }
+    }
+    return described;
+  }
+
+  /**
+   * Splits a line of the TopURLs file into the fields of a url_temp row. The hostname may be
+   * split over any number of columns after the position, each holding one or more labels. Labels
+   * left of the registrable domain are dropped.
+   *
+   * @param line String represents the line.
+   * @return pos, domain_name, tld1, tld2 and the described_tld found in the mapping table,
+   *     where tld1 is the first label of the suffix and tld2 the rest, empty for a single label.
+   */
+  public Object[] parse(String line) {
+    String[] values = line.split("\t");
+    List<String> hostname = new ArrayList<String>(4);
+    for (int i = 1; i < values.length; i++) {
+      for (String label : values[i].split("\\.")) {
+        if (!label.isEmpty()) {
+          hostname.add(label);
+        }
+      }
+    }
+    if (hostname.size() < 2) {
+      throw new IllegalArgumentException("No domain and suffix in line: " + line);
+    }
+
+    String[] labels = hostname.toArray(new String[0]);
+    int length = suffixLength(labels);
+    int first = labels.length - length;
+    return new Object[] {Integer.parseInt(values[0]), labels[first - 1], labels[first],
+        String.join(".", Arrays.asList(labels).subList(first + 1, labels.length)),
+        described(labels, length)};
+  }
+
+  private Node insert(String suffix) {
+    String[] labels = suffix.split("\\.");
+    Node node = root;
+    for (int i = labels.length - 1; i >= 0; i--) {
+      node = node.children.computeIfAbsent(key(labels[i]), label -> new Node());
+    }
+    return node;
+  }
+
+  private static String key(String label) {
+    return label.toLowerCase(Locale.ROOT);
+  }
+
+}
+
+/**
+ * <h1>Interface for a ranking with dictionary encoded domains and tld pairs.</h1>
+ *
+ * Rows are in position order. Domains are numbered from 0 in name order and tld pairs from 1 by
+ * best position, as tld_id is.
+ *
+ * @author Hayder
+ * @version 1.0
+ */
+
+interface Ranking {
+
+  int tldCount();
+
+  String tld1(int tldId);
+
+  String tld2(int tldId);
+
+  int domainCount();
+
+  String domainName(int domain);
+
+  int size();
+
+  int position(int row);
+
+  int domain(int row);
+
+  int tldId(int row);
+
+  /**
+   * Gets the rightmost tld of a pair, which is described in the mapping table.
+   *
+   * @param tldId int represents the tld_id of the pair.
+   * @return tld2, or tld1 if the pair has no tld2.
+   */
+  default String rightmost(int tldId) {
+    String tld2 = tld2(tldId);
+    return tld2.equals("") ? tld1(tldId) : tld2;
+  }
+
+}
+
+/**
+ * <h1>Class to dictionary encode a TopURLs file in memory.</h1>
+ *
+ * Assigns every distinct (tld1, tld2) pair the same tld_id as
+ * <code>row_number() OVER (ORDER BY min(pos))</code> in {@link Tld} and keeps the rows that
+ * {@link Url} would keep, so the tld, domain and url tables can be written directly without
+ * going through url_temp.
+ *
+ * @author Hayder
+ * @version 1.0
+ */
+
+class RankingDictionary implements Ranking {
+
+  private final Map<String, Integer> labelIds = new HashMap<String, Integer>();
+  private final List<String> labels = new ArrayList<String>();
+  private final LongIntMap pairIds = new LongIntMap(1024);
+  private final Map<String, Integer> domainIds = new HashMap<String, Integer>();
+  private final List<String> domains = new ArrayList<String>();
+
+  private int[] pairLabels = new int[2048];
+  private int[] pairBest = new int[1024];
+  private int pairs = 0;
+
+  private int[] positions = new int[1024];
+  private int[] rowDomains = new int[1024];
+  private int[] rowTlds = new int[1024];
+  private int size = 0;
+
+  /**
+   * Parses a TopURLs file with {@link TopUrlsParser} and encodes it.
+   *
+   * @param file String represents path of the TopURLs file.
+   * @return the encoded ranking.
+   * @throws IOException
+   */
+  public static RankingDictionary parse(String file) throws IOException {
+    RankingDictionary ranking = new RankingDictionary();
+    for (TopUrlsParser.Segment segment : TopUrlsParser.parse(file)) {
+      for (int i = 0; i < segment.size(); i++) {
+        ranking.add(segment.position(i), segment.domain(i), segment.tld1(i), segment.tld2(i));
+      }
+    }
+    ranking.finish();
+    return ranking;
+  }
+
+  /**
+   * Reads a TopURLs file line by line, resolving the suffix of every hostname with a
+   * {@link SuffixTrie} as {@link UrlTemp#suffixData()} does, and encodes it.
+   *
+   * @param file String represents path of the TopURLs file, optionally without its compression suffix.
+   * @param trie SuffixTrie to resolve the hostnames with.
+   * @return the encoded ranking.
+   * @throws IOException
+   */
+  public static RankingDictionary parse(String file, SuffixTrie trie) throws IOException {
+    RankingDictionary ranking = new RankingDictionary();
+    try (BufferedReader reader = IngestPipeline.reader(file)) {
+      String line = reader.readLine();
+      while (line != null) {
+        Object[] row = trie.parse(line);
+        ranking.add((Integer) row[0], (String) row[1], (String) row[2], (String) row[3]);
+        line = reader.readLine();
+      }
+    }
+    ranking.finish();
+    return ranking;
+  }
+
+  /**
+   * Adds a row of the ranking.
+   *
+   * @param position int represents position of the url.
+   * @param domain String represents domain name of the url.
+   * @param tld1 String represents first tld of the url.
+   * @param tld2 String represents second tld of the url, empty if there is none.
+   */
+  public void add(int position, String domain, String tld1, String tld2) {
+    long key = ((long) label(tld1) << 32) | label(tld2);
+    int pair = pairIds.get(key);
+    if (pair < 0) {
+      pair = pairs++;
+      if (pair == pairBest.length) {
+        pairBest = Arrays.copyOf(pairBest, pair * 2);
+        pairLabels = Arrays.copyOf(pairLabels, pair * 4);
+      }
+      pairIds.put(key, pair);
+      pairLabels[pair * 2] = (int) (key >>> 32);
+      pairLabels[pair * 2 + 1] = (int) key;
+      pairBest[pair] = position;
+    } else if (position < pairBest[pair]) {
+      pairBest[pair] = position;
+    }
+
+    Integer id = domainIds.get(domain);
+    if (id == null) {
+      id = domains.size();
+      domainIds.put(domain, id);
+      domains.add(domain);
+    }
+
+    if (size == positions.length) {
+      positions = Arrays.copyOf(positions, size * 2);
+      rowDomains = Arrays.copyOf(rowDomains, size * 2);
+      rowTlds = Arrays.copyOf(rowTlds, size * 2);
+    }
+    positions[size] = position;
+    rowDomains[size] = id;
+    rowTlds[size] = pair;
+    size++;
+  }
+
+  /**
+   * Numbers the tld pairs by best position, sorts domains by the byte order of their names as
+   * {@link Domain#surrogateInsertQuery} does and orders the rows by position, dropping rows that
+   * repeat a position or a (domain, tld) pair as the <code>ON CONFLICT DO NOTHING</code> inserts do.
+   */
+  public void finish() {
+    // tld pair index becomes tld_id - 1
+    int[] pairOrder = sortedBy(pairBest, pairs);
+    int[] tldIndex = new int[pairs];
+    int[] labelsByTld = new int[pairs * 2];
+    for (int i = 0; i < pairs; i++) {
+      tldIndex[pairOrder[i]] = i;
+      labelsByTld[i * 2] = pairLabels[pairOrder[i] * 2];
+      labelsByTld[i * 2 + 1] = pairLabels[pairOrder[i] * 2 + 1];
+    }
+    pairLabels = labelsByTld;
+
+    // domain index becomes the rank of the name
+    Integer[] domainOrder = new Integer[domains.size()];
+    for (int i = 0; i < domainOrder.length; i++) {
+      domainOrder[i] = i;
+    }
+    Arrays.sort(domainOrder, (a, b) -> compareBytes(domains.get(a), domains.get(b)));
+    int[] domainIndex = new int[domainOrder.length];
+    List<String> sortedDomains = new ArrayList<String>(domainOrder.length);
+    for (int i = 0; i < domainOrder.length; i++) {
+      domainIndex[domainOrder[i]] = i;
+      sortedDomains.add(domains.get(domainOrder[i]));
+    }
+    domains.clear();
+    domains.addAll(sortedDomains);
+    domainIds.clear();
+
+    int[] rowOrder = sortedBy(positions, size);
+    LongIntMap seen = new LongIntMap(size);
+    int[] keptPositions = new int[size];
+    int[] keptDomains = new int[size];
+    int[] keptTlds = new int[size];
+    int kept = 0;
+    int lastPosition = Integer.MIN_VALUE;
+    for (int row : rowOrder) {
+      int domain = domainIndex[rowDomains[row]];
+      int tld = tldIndex[rowTlds[row]];
+      long key = ((long) domain << 32) | tld;
+      if (positions[row] == lastPosition || seen.get(key) >= 0) {
+        continue;
+      }
+      seen.put(key, kept);
+      lastPosition = positions[row];
+      keptPositions[kept] = positions[row];
+      keptDomains[kept] = domain;
+      keptTlds[kept] = tld;
+      kept++;
+    }
+    positions = keptPositions;
+    rowDomains = keptDomains;
+    rowTlds = keptTlds;
+    size = kept;
+  }
+
+  /**
+   * Compares names by code point, which is the byte order of their UTF-8 encoding that
+   * <code>COLLATE "C"</code> sorts by. <code>String.compareTo</code> compares UTF-16 units
+   * instead, which puts characters above U+FFFF before U+E000 to U+FFFF.
+   */
+  static int compareBytes(String a, String b) {
+    int i = 0;
+    while (i < a.length() && i < b.length()) {
+      int ca = a.codePointAt(i);
+      int cb = b.codePointAt(i);
+      if (ca != cb) {
+        return Integer.compare(ca, cb);
+      }
+      i += Character.charCount(ca);
+    }
+    return Integer.compare(a.length(), b.length());
+  }
+
+  /**
+   * Sorts indexes 0 to count - 1 by the value they have in an array.
+   */
+  private static int[] sortedBy(int[] values, int count) {
+    long[] keyed = new long[count];
+    for (int i = 0; i < count; i++) {
+      keyed[i] = ((long) values[i] << 32) | i;
+    }
+    Arrays.sort(keyed);
+    int[] order = new int[count];
+    for (int i = 0; i < count; i++) {
+      order[i] = (int) keyed[i];
+    }
+    return order;
+  }
+
+  private int label(String label) {
+    Integer id = labelIds.get(label);
+    if (id == null) {
+      id = labels.size();
+      labelIds.put(label, id);
+      labels.add(label);
+    }
+    return id;
+  }
+
+  @Override
+  public int tldCount() {
+    return pairs;
+  }
+
+  @Override
+  public String tld1(int tldId) {
+    return labels.get(pairLabels[(tldId - 1) * 2]);
+  }
+
+  @Override
+  public String tld2(int tldId) {
+    return labels.get(pairLabels[(tldId - 1) * 2 + 1]);
+  }
+
+  @Override
+  public int domainCount() {
+    return domains.size();
+  }
+
+  @Override
+  public String domainName(int domain) {
+    return domains.get(domain);
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public int position(int row) {
+    return positions[row];
+  }
+
+  @Override
+  public int domain(int row) {
+    return rowDomains[row];
+  }
+
+  @Override
+  public int tldId(int row) {
+    return rowTlds[row] + 1;
+  }
+
+}
+
+/**
+ * <h1>Abstract class to represent a materialized view in the database.</h1>
+ *
+ * The results are stored when the view is created and kept up to date with
+ * {@link #refresh(Connection, String)}, which refreshes concurrently so readers are never blocked.
+ * A concurrent refresh needs a unique index, built on the columns given by {@link #uniqueKey()}.
+ *
+ * @author Hayder
+ * @version 1.0
+ *
+ * @see View
+ */
+
+abstract class MaterializedView extends View {
+
+  /**
+   * Constructs a new materialized view.
+   *
+   * @param connection Connection the view is created on.
+   * @param name String represents name of the view.
+   * @param definition String showing the definition of the view creation.
+   * @throws SQLException
+   */
+  public MaterializedView(Connection connection, String name, String definition) throws SQLException {
+    super(connection, name, definition);
+  }
+
+  /**
+   * Gives the columns that identify a row of the view.
+   *
+   * @return comma separated list of columns.
+   */
+  abstract String uniqueKey();
+
+  @Override
+  public boolean alreadyExists() throws SQLException {
+    return Database.exists(this.connection, this.name, new String[]{"MATERIALIZED VIEW"});
+  }
+
+  @Override
+  public void drop() throws SQLException {
+    Statement st = this.connection.createStatement();
+    st.execute("DROP MATERIALIZED VIEW " + this.name + " CASCADE;");
+    st.close();
+  }
+
+  @Override
+  public void create() throws SQLException {
+    Statement st = this.connection.createStatement();
+    st.execute("CREATE MATERIALIZED VIEW " + this.name + " AS " + this.definition + ";");
+    st.execute("CREATE UNIQUE INDEX ON " + this.name + " (" + uniqueKey() + ");");
+    st.close();
+  }
+
+  /**
+   * Recomputes a materialized view without blocking readers.
+   *
+   * @param connection Connection to refresh on.
+   * @param name String represents name of the view.
+   * @throws SQLException
+   */
+  public static void refresh(Connection connection, String name) throws SQLException {
+    long start = System.nanoTime();
+    Statement st = connection.createStatement();
+    st.execute("REFRESH MATERIALIZED VIEW CONCURRENTLY " + name + ";");
+    st.close();
+    Table.generation.incrementAndGet();
+    Database.metrics.record(name, "refresh", 0, start);
+    System.out.printf("Refreshed %s in %.3f s%n", name, (System.nanoTime() - start) / 1e9);
+  }
+
+}
+
+/**
+ * Class to represent the mapping table in database. Implements {@link Table} abstract class.
+ *
+ * @author Hayder
+ * @version 1.0
+ *
+ * @see Table
+ */
+
+class Mapping extends Table {
+
+  public final static String name = "mapping";
+  public final static String definition = "tld VARCHAR(15), description VARCHAR(200) NOT NULL, PRIMARY KEY (tld)";
+  public final static boolean isTemp = false;
+
+  public final static String insertQuery = "INSERT INTO mapping (tld, description) VALUES (?, ?) "
+      + "ON CONFLICT DO NOTHING";
+
+  public String filepath = new File("").getAbsolutePath();
+  public String mapping_file = filepath + "/mapping";
+
+  /**
+   * Constructor calls parent constructor to set up table.
+   *
+   * @param connection Connection the table is created and loaded on.
+   * @throws SQLException
+   *
+   * @see Table#Table(Connection, String, String, boolean)
+   */
+
+  public Mapping(Connection connection) throws SQLException {
+    super(connection, name, definition, isTemp);
+    load();
+  }
+
+  /**
+   * Inserts data from mapping file into table.
+   *
+   * @throws SQLException
+   */
+
+  @Override
+  public void insertData() throws SQLException {
+	  if (Database.isPipelinedParser() || IngestPipeline.isCompressed(mapping_file)) {
+	    pipelinedData();
+	    return;
+	  }
+
+	  if (Database.isCopyLoader()) {
+	    copyData();
+	    return;
+	  }
+
+	  long start = System.nanoTime();
+	  long rows = 0;
+
+	  PreparedStatement preparedStatement;
+	  preparedStatement = this.connection.prepareStatement(insertQuery);
+
+	  BufferedReader reader;
+
+	    try {
+	      reader = new BufferedReader(new FileReader(mapping_file));
+	      String line = reader.readLine();
+	      while (line != null) {
+
+	        String[] values = line.split("\t");
+	        int i = 1;
+	        for (String value : values) {
+	        	preparedStatement.setString(i++, value);
+	        }
+
+	        preparedStatement.addBatch();
+	        rows++;
+
+	        line = reader.readLine();
+	      }
+
+	      Database.metrics.executeBatch(name, preparedStatement);
+	      preparedStatement.close();
+	      reader.close();
+
+	    } catch (IOException e) {
+	      e.printStackTrace();
+	    	System.out.println("Error reading file");
+	    }
+
+	  Database.reportLoad(name, rows, start);
+  }
+
+  /**
+   * Inserts data from mapping file into table using the COPY protocol. COPY cannot skip
+   * conflicting rows, so duplicate tlds are dropped here keeping the first one in the file.
+   *
+   * @throws SQLException
+   */
+
+  public void copyData() throws SQLException {
+    long start = System.nanoTime();
+    CopyLoader loader = new CopyLoader(this.connection, name, "tld, description");
+    Set<String> seen = new HashSet<String>();
+
+    try (BufferedReader reader = new BufferedReader(new FileReader(mapping_file))) {
+      String line = reader.readLine();
+      while (line != null) {
+        String[] values = line.split("\t");
+        if (seen.add(values[0])) {
+          loader.field(values[0]).field(values[1]).endRow();
+        }
+        line = reader.readLine();
+      }
+    } catch (IOException e) {
+      loader.cancel();
+      e.printStackTrace();
+      System.out.println("Error reading file");
+      return;
+    }
+
+    Database.reportLoad(name, loader.finish(), start);
+  }
+
+  /**
+   * Inserts data from mapping file into table through an {@link IngestPipeline}, with whichever
+   * loader is selected. Duplicate tlds are dropped by the parser keeping the first one in the file.
+   *
+   * @throws SQLException
+   */
+
+  public void pipelinedData() throws SQLException {
+    long start = System.nanoTime();
+    RowLoader loader = RowLoader.open(this.connection, name, "tld, description");
+    Set<String> seen = new HashSet<String>();
+    long rows;
+
+    try {
+      rows = IngestPipeline.run(mapping_file, line -> {
+        String[] values = line.split("\t");
+        return seen.add(values[0]) ? new Object[] {values[0], values[1]} : null;
+      }, loader);
+    } catch (IOException e) {
+      e.printStackTrace();
+      System.out.println("Error reading file");
+      return;
+    }
+
+    Database.reportLoad(name, rows, start);
+  }
+
+}
+
+/**
+ * Class to represent the url_temp table in database. Implements {@link Table} abstract class.
+ *
+ * @author Hayder
+ * @version 1.0
+ *
+ * @see Table
+ */
+
+class UrlTemp extends Table {
+
+  public final static String name = "url_temp";
+  public final static String definition = "pos INT,\n" +
+			"  domain_name VARCHAR(50),\n" +
+			"  tld1 VARCHAR(15) NOT NULL,\n" +
+			"  tld2 VARCHAR(15)";
+
+  /**
+   * Definition used when suffixes are resolved with a {@link SuffixTrie}, which also finds the
+   * tld the mapping table describes each suffix by. tld2 holds every label of a suffix after the
+   * first, so it is wider. The described tld is not named rightmost_tld, which would join it to
+   * tld along with tld1 and tld2.
+   */
+  public final static String suffixDefinition = "pos INT,\n" +
+      "  domain_name VARCHAR(50),\n" +
+      "  tld1 VARCHAR(15) NOT NULL,\n" +
+      "  tld2 VARCHAR(63),\n" +
+      "  described_tld VARCHAR(15)";
+
+  public final static boolean isTemp = true;
+
+  public String insertQuery = "INSERT INTO url_temp (pos, domain_name, tld1, tld2) "
+  		+ "VALUES (?, ?, ?, ?)";
+
+  public String filepath = new File("").getAbsolutePath();
+  public String file = filepath + "/TopURLs";
+
+  /**
+   * Constructor calls parent constructor to set up table.
+   *
+   * @param connection Connection the table is created and loaded on.
+   * @throws SQLException
+   *
+   * @see Table#Table(Connection, String, String, boolean)
+   */
+
+  public UrlTemp(Connection connection) throws SQLException {
+    super(connection, name, Database.isSuffixTrie() ? suffixDefinition : definition, isTemp);
+    load();
+  }
+
+  /**
+   * Inserts data from TopURLs file into table.
+   *
+   * @throws SQLException
+   */
+
+  @Override
+  public void insertData() throws SQLException {
+  	  if (Database.isSuffixTrie()) {
+  	    suffixData();
+  	    return;
+  	  }
+
+  	  if (Database.isPipelinedParser() || IngestPipeline.isCompressed(file)) {
+  	    pipelinedData();
+  	    return;
+  	  }
+
+  	  if (Database.isMappedParser()) {
+  	    mappedData();
+  	    return;
+  	  }
+
+  	  if (Database.isCopyLoader()) {
+  	    copyData();
+  	    return;
+  	  }
+
+  	  long start = System.nanoTime();
+  	  long rows = 0;
+
+  	  PreparedStatement preparedStatement;
+  	  preparedStatement = this.connection.prepareStatement(insertQuery);
+
+  	  Scanner scanner;
+
+  	    try {
+  	    	scanner = new Scanner(new FileInputStream(file));
+
+  		    while(scanner.hasNextLine()) {
+  		    	String line = scanner.nextLine();
+  		    	String[] values = line.split("\t");
+  		        int id = Integer.parseInt(values[0]);
+  		        String domain = values[1];
+  		        String tld1 = values[2];
+  		        String tld2;
+
+  		        // check if the line has two tlds or one and handle accordingly
+  		        if (values.length == 4) {
+  		        	tld2 = values[3];
+  		        } else {
+  		        	tld2 = "";
+  		        }
+
+  		        preparedStatement.setInt(1, id);
+  		        preparedStatement.setString(2, domain);
+  		        preparedStatement.setString(3, tld1);
+  		        preparedStatement.setString(4, tld2);
+  		        preparedStatement.addBatch();
+  		        rows++;
+  		    }
+
+  	      Database.metrics.executeBatch(name, preparedStatement);
+  	      preparedStatement.close();
+  	      scanner.close();
+
+  	    } catch (IOException e) {
+  	      e.printStackTrace();
+  	    	System.out.println("Error reading file");
+  	    }
+
+  	  Database.reportLoad(name, rows, start);
+    }
+
+  /**
+   * Inserts data from TopURLs file into table, parsing the file with {@link TopUrlsParser}
+   * and writing rows with whichever loader is selected.
+   *
+   * @throws SQLException
+   */
+
+  public void mappedData() throws SQLException {
+    long start = System.nanoTime();
+    TopUrlsParser.Segment[] segments;
+
+    try {
+      segments = TopUrlsParser.parse(file);
+    } catch (IOException e) {
+      e.printStackTrace();
+      System.out.println("Error reading file");
+      return;
+    }
+
+    RowLoader loader = RowLoader.open(this.connection, name, "pos, domain_name, tld1, tld2");
+    TopUrlsParser.forEach(segments, (pos, domain, tld1, tld2) ->
+        loader.field(pos).field(domain).field(tld1).field(tld2).endRow());
+    long rows = loader.finish();
+
+    Database.reportLoad(name, rows, start);
+  }
+
+  /**
+   * Inserts data from TopURLs file into table through an {@link IngestPipeline}, with whichever
+   * loader is selected.
+   *
+   * @throws SQLException
+   */
+
+  public void pipelinedData() throws SQLException {
+    long start = System.nanoTime();
+    RowLoader loader = RowLoader.open(this.connection, name, "pos, domain_name, tld1, tld2");
+    long rows;
+
+    try {
+      rows = IngestPipeline.run(file, UrlTemp::fields, loader);
+    } catch (IOException e) {
+      e.printStackTrace();
+      System.out.println("Error reading file");
+      return;
+    }
+
+    Database.reportLoad(name, rows, start);
+  }
+
+  /**
+   * Splits one line of a TopURLs file into its fields.
+   *
+   * @param line String represents the line.
+   * @return the position as an Integer, then the domain, tld1 and tld2, which is empty if the
+   *     line has one tld.
+   */
+  static Object[] fields(String line) {
+    String[] values = line.split("\t");
+
+    // check if the line has two tlds or one and handle accordingly
+    return new Object[] {Integer.parseInt(values[0]), values[1], values[2],
+        values.length == 4 ? values[3] : ""};
+  }
+
+  /**
+   * Inserts data from TopURLs file into table through an {@link IngestPipeline}, resolving the
+   * suffix of every hostname with a {@link SuffixTrie} built from the mapping file and the public
+   * suffix list.
+   *
+   * @throws SQLException
+   */
+
+  public void suffixData() throws SQLException {
+    long start = System.nanoTime();
+    long rows;
+
+    try {
+      SuffixTrie trie = SuffixTrie.read(filepath + "/mapping", Database.suffixList());
+      RowLoader loader = RowLoader.open(this.connection, name, "pos, domain_name, tld1, tld2, described_tld");
+      rows = IngestPipeline.run(file, trie::parse, loader);
+    } catch (IOException e) {
+      e.printStackTrace();
+      System.out.println("Error reading file");
+      return;
+    }
+
+    Database.reportLoad(name, rows, start);
+  }
+
+  /**
+   * Inserts data from TopURLs file into table using the COPY protocol.
+   *
+   * @throws SQLException
+   */
+
+  public void copyData() throws SQLException {
+    long start = System.nanoTime();
+    CopyLoader loader = new CopyLoader(this.connection, name, "pos, domain_name, tld1, tld2");
+
+    try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+      String line = reader.readLine();
+      while (line != null) {
+        String[] values = line.split("\t");
+
+        // check if the line has two tlds or one and handle accordingly
+        loader.field(Integer.parseInt(values[0]))
+            .field(values[1])
+            .field(values[2])
+            .field(values.length == 4 ? values[3] : "")
+            .endRow();
+
+        line = reader.readLine();
+      }
+    } catch (IOException e) {
+      loader.cancel();
+      e.printStackTrace();
+      System.out.println("Error reading file");
+      return;
+    }
+
+    Database.reportLoad(name, loader.finish(), start);
+  }
+
+}
+
+/**
+ * Class to represent the tld table in database. Implements {@link Table} abstract class.
+ *
+ * @author Hayder
+ * @version 1.0
+ *
+ * @see Table
+ */
+
+class Tld extends Table {
+
+  public final static String name = "tld";
+  public final static String definition = "tld_id INT, tld1 VARCHAR(15) NOT NULL, tld2 VARCHAR(15),\n" +
+      "  rightmost_tld VARCHAR(15), PRIMARY KEY (tld_id),\n" +
+      "  FOREIGN KEY (rightmost_tld) REFERENCES mapping";
+  public final static boolean isTemp = false;
+
+  public final static String insertQuery = "SELECT t.tld_id, t.tld1, t.tld2, mapping.tld\n" +
+  "FROM (SELECT row_number() OVER (ORDER BY min(pos)) AS tld_id, tld1, tld2\n" +
+  "  FROM url_temp\n" +
+  "  GROUP BY tld1, tld2) t\n" +
+  "LEFT JOIN mapping ON mapping.tld = (CASE WHEN t.tld2 = '' THEN t.tld1 ELSE t.tld2 END)";
+
+  /**
+   * Definition used when suffixes are resolved with a {@link SuffixTrie}. Each suffix keeps its
+   * description, so the tld reports need not join the mapping table.
+   */
+  public final static String suffixDefinition = "tld_id INT, tld1 VARCHAR(15) NOT NULL, tld2 VARCHAR(63),\n" +
+      "  rightmost_tld VARCHAR(15), description VARCHAR(200), PRIMARY KEY (tld_id),\n" +
+      "  FOREIGN KEY (rightmost_tld) REFERENCES mapping";
+
+  /**
+   * Numbers the suffixes as {@link #insertQuery} does, taking the tld each is described by from
+   * url_temp, where the trie put it, instead of working it out from tld1 and tld2.
+   */
+  public final static String suffixInsertQuery = "SELECT t.tld_id, t.tld1, t.tld2, mapping.tld, mapping.description\n" +
+      "FROM (SELECT row_number() OVER (ORDER BY min(pos)) AS tld_id, tld1, tld2, described_tld\n" +
+      "  FROM url_temp\n" +
+      "  GROUP BY tld1, tld2, described_tld) t\n" +
+      "LEFT JOIN mapping ON mapping.tld = t.described_tld";
+
+  private final RankingDictionary ranking;
+
+  /**
+   * Constructor sets up the table and fills it from url_temp.
+   *
+   * @param connection Connection the table is created and loaded on.
+   * @throws SQLException
+   *
+   * @see #Tld(Connection, RankingDictionary)
+   */
+
+  public Tld(Connection connection) throws SQLException {
+    this(connection, null);
+  }
+
+  /**
+   * Constructor calls parent constructor to set up table, which is then filled from an
+   * encoded ranking instead of url_temp.
+   *
+   * @param connection Connection the table is created and loaded on.
+   * @param ranking RankingDictionary to load from, or null to load from url_temp.
+   * @throws SQLException
+   *
+   * @see Table#Table(Connection, String, String, boolean)
+   */
+
+  public Tld(Connection connection, RankingDictionary ranking) throws SQLException {
+    super(connection, name, Database.isSuffixTrie() ? suffixDefinition : definition, isTemp);
+    this.ranking = ranking;
+    load();
+  }
+
+  /**
+   * Indexes the rightmost tld, which the tld reports join the mapping table on.
+   *
+   * @return the indexed column.
+   */
+
+  @Override
+  String[] indexes() {
+    return new String[]{"rightmost_tld"};
+  }
+
+  /**
+   * Inserts data from url table into this table.
+   *
+   * @throws SQLException
+   */
+
+  @Override
+  public void insertData() throws SQLException {
+    if (this.ranking != null) {
+      dictionaryData();
+      return;
+    }
+
+	  long start = System.nanoTime();
+	  Statement st = this.connection.createStatement();
+	  int rows = st.executeUpdate("INSERT INTO " + name + " "
+	      + (Database.isSuffixTrie() ? suffixInsertQuery : insertQuery) + " ON CONFLICT DO NOTHING;");
+	  st.close();
+	  Database.reportLoad(name, rows, start);
+  }
+
+  /**
+   * Inserts the tld pairs of the encoded ranking, numbered as {@link #insertQuery} would and
+   * with the rightmost tld set when the mapping table describes it. When suffixes are resolved
+   * with a {@link SuffixTrie} the deepest described part of each pair is found by the trie and
+   * its description is stored as well.
+   *
+   * @throws SQLException
+   */
+
+  public void dictionaryData() throws SQLException {
+    long start = System.nanoTime();
+    Map<String, String> mapped = new HashMap<String, String>();
+    ResultSet rs = Database.executeSelect(this.connection, "SELECT tld, description FROM " + Mapping.name);
+    while (rs.next()) {
+      mapped.put(rs.getString(1), rs.getString(2));
+    }
+    rs.close();
+
+    SuffixTrie trie = null;
+    if (Database.isSuffixTrie()) {
+      try {
+        trie = SuffixTrie.read(new File("").getAbsolutePath() + "/mapping", Database.suffixList());
+      } catch (IOException e) {
+        throw new SQLException("Error reading mapping file", e);
+      }
+    }
+
+    RowLoader loader = RowLoader.open(this.connection, name,
+        "tld_id, tld1, tld2, rightmost_tld" + (trie == null ? "" : ", description"));
+    for (int id = 1; id <= ranking.tldCount(); id++) {
+      String rightmost = ranking.rightmost(id);
+      if (trie != null) {
+        // the ranking was resolved by the trie, so the whole pair is the suffix
+        String suffix = ranking.tld2(id).equals("") ? ranking.tld1(id) : ranking.tld1(id) + "." + ranking.tld2(id);
+        String[] labels = suffix.split("\\.");
+        rightmost = trie.described(labels, labels.length);
+      }
+      loader.field(id)
+          .field(ranking.tld1(id))
+          .field(ranking.tld2(id))
+          .field(mapped.containsKey(rightmost) ? rightmost : null);
+      if (trie != null) {
+        loader.field(mapped.get(rightmost));
+      }
+      loader.endRow();
+    }
+    Database.reportLoad(name, loader.finish(), start);
+  }
+
+}
+
+/**
+ * Class to represent the domain table in database. Implements {@link Table} abstract class.
+ *
+ * @author Hayder
+ * @version 1.0
+ *
+ * @see Table
+ */
+
+class Domain extends Table {
+
+  public final static String name = "domain";
+  public final static String definition = "domain_name VARCHAR(50), PRIMARY KEY (domain_name)";
+  public final static boolean isTemp = false;
+
+  public final static String insertQuery = "SELECT domain_name\n" +
+      "FROM url_temp\n" +
+      "GROUP BY domain_name\n" +
+      "ORDER BY domain_name";
+
+  /**
+   * Definition used with surrogate keys, where url refers to each domain by a domain_id.
+   */
+  public final static String surrogateDefinition = "domain_id INT, domain_name VARCHAR(50) NOT NULL,\n" +
+      "  PRIMARY KEY (domain_id), UNIQUE (domain_name)";
+
+  /**
+   * Numbers the domains in the byte order of their names, which is the order
+   * {@link RankingDictionary} gives them, so both ingests assign the same domain_ids.
+   */
+  public final static String surrogateInsertQuery = "SELECT row_number() OVER (ORDER BY domain_name COLLATE \"C\"), domain_name\n" +
+      "FROM url_temp\n" +
+      "GROUP BY domain_name";
+
+  private final RankingDictionary ranking;
+
+  /**
+   * Constructor sets up the table and fills it from url_temp.
+   *
+   * @param connection Connection the table is created and loaded on.
+   * @throws SQLException
+   *
+   * @see #Domain(Connection, RankingDictionary)
+   */
+
+  public Domain(Connection connection) throws SQLException {
+    this(connection, null);
+  }
+
+  /**
+   * Constructor calls parent constructor to set up table, which is then filled from an
+   * encoded ranking instead of url_temp.
+   *
+   * @param connection Connection the table is created and loaded on.
+   * @param ranking RankingDictionary to load from, or null to load from url_temp.
+   * @throws SQLException
+   *
+   * @see Table#Table(Connection, String, String, boolean)
+   */
+
+  public Domain(Connection connection, RankingDictionary ranking) throws SQLException {
+    super(connection, name, Database.isSurrogateKeys() ? surrogateDefinition : definition, isTemp);
+    this.ranking = ranking;
+    load();
+  }
+
+  /**
+   * Inserts data from url table into this table.
+   *
+   * @throws SQLException
+   */
+
+  @Override
+  public void insertData() throws SQLException {
+    if (this.ranking != null) {
+      dictionaryData();
+      return;
+    }
+
+	  long start = System.nanoTime();
+	  Statement st = this.connection.createStatement();
+	  int rows = st.executeUpdate("INSERT INTO " + name + " "
+	      + (Database.isSurrogateKeys() ? surrogateInsertQuery : insertQuery) + " ON CONFLICT DO NOTHING;");
+	  st.close();
+	  Database.reportLoad(name, rows, start);
+  }
+
+  /**
+   * Inserts the domain names of the encoded ranking in name order. With surrogate keys each
+   * name's domain_id is its index in the ranking plus one.
+   *
+   * @throws SQLException
+   */
+
+  public void dictionaryData() throws SQLException {
+    long start = System.nanoTime();
+    boolean surrogate = Database.isSurrogateKeys();
+    RowLoader loader = RowLoader.open(this.connection, name, surrogate ? "domain_id, domain_name" : "domain_name");
+    for (int domain = 0; domain < ranking.domainCount(); domain++) {
+      if (surrogate) {
+        loader.field(domain + 1);
+      }
+      loader.field(ranking.domainName(domain)).endRow();
+    }
+    Database.reportLoad(name, loader.finish(), start);
+  }
+
+  /**
+   * Gets the column url refers to domains by.
+   *
+   * @return <code>domain_id</code> with surrogate keys, otherwise <code>domain_name</code>.
+   */
+  public static String key() {
+    return Database.isSurrogateKeys() ? "domain_id" : "domain_name";
+  }
+
+}
+
+/**
+ * Class to represent the url table in database. Implements {@link Table} abstract class.
+ *
+ * @author Hayder
+ * @version 1.0
+ *
+ * @see Table
+ */
+
+class Url extends Table {
+
+  public final static String name = "url";
+  public final static String definition = "domain_name VARCHAR(50) NOT NULL, tld_id INT NOT NULL,\n" +
+			"  position INT NOT NULL, PRIMARY KEY (domain_name, tld_id), "
+			+ "FOREIGN KEY (domain_name) REFERENCES domain,\n" +
+			"  FOREIGN KEY (tld_id) REFERENCES tld,\n" +
+			"  UNIQUE (position),\n" +
+			"  CHECK (position >= 1)";
+
+  /**
+   * Definition used when url is partitioned by position. A partitioned table can only enforce
+   * keys that include position, so each domain and tld pair is kept to its best position by the
+   * queries that fill the table instead.
+   */
+  public final static String partitionedDefinition = "domain_name VARCHAR(50) NOT NULL, tld_id INT NOT NULL,\n" +
+      "  position INT NOT NULL, PRIMARY KEY (position), "
+      + "FOREIGN KEY (domain_name) REFERENCES domain,\n" +
+      "  FOREIGN KEY (tld_id) REFERENCES tld,\n" +
+      "  CHECK (position >= 1)";
+
+  /**
+   * Definitions used with surrogate keys, where each url refers to its domain by domain_id.
+   */
+  public final static String surrogateDefinition = "domain_id INT NOT NULL, tld_id INT NOT NULL,\n" +
+      "  position INT NOT NULL, PRIMARY KEY (domain_id, tld_id), "
+      + "FOREIGN KEY (domain_id) REFERENCES domain,\n" +
+      "  FOREIGN KEY (tld_id) REFERENCES tld,\n" +
+      "  UNIQUE (position),\n" +
+      "  CHECK (position >= 1)";
+
+  public final static String surrogatePartitionedDefinition = "domain_id INT NOT NULL, tld_id INT NOT NULL,\n" +
+      "  position INT NOT NULL, PRIMARY KEY (position), "
+      + "FOREIGN KEY (domain_id) REFERENCES domain,\n" +
+      "  FOREIGN KEY (tld_id) REFERENCES tld,\n" +
+      "  CHECK (position >= 1)";
+
+  public final static boolean isTemp = false;
+
+  public final static String insertQuery = "INSERT INTO url (position, domain_name, tld_id) VALUES (?, ?, ?) ON CONFLICT DO NOTHING";
+
+  public final static String transformQuery = "INSERT INTO url (position, domain_name, tld_id)\n" +
+      "SELECT pos, domain_name, tld_id\n" +
+      "FROM url_temp\n" +
+      "NATURAL JOIN tld\n" +
+      "ORDER BY pos\n" +
+      "ON CONFLICT DO NOTHING";
+
+  public final static String distinctQuery = "SELECT pos, domain_name, tld_id\n" +
+      "FROM (SELECT DISTINCT ON (domain_name, tld_id) pos, domain_name, tld_id\n" +
+      "  FROM url_temp\n" +
+      "  NATURAL JOIN tld\n" +
+      "  ORDER BY domain_name, tld_id, pos) AS best\n" +
+      "ORDER BY pos";
+
+  public final static String surrogateInsertQuery = "INSERT INTO url (position, domain_id, tld_id) VALUES (?, ?, ?) ON CONFLICT DO NOTHING";
+
+  public final static String surrogateSelectQuery = "SELECT pos, domain_id, tld_id\n" +
+      "FROM url_temp\n" +
+      "NATURAL JOIN tld\n" +
+      "NATURAL JOIN domain\n" +
+      "ORDER BY pos";
+
+  public final static String surrogateTransformQuery = "INSERT INTO url (position, domain_id, tld_id)\n" +
+      surrogateSelectQuery + "\n" +
+      "ON CONFLICT DO NOTHING";
+
+  public final static String surrogateDistinctQuery = "SELECT pos, domain_id, tld_id\n" +
+      "FROM (SELECT DISTINCT ON (domain_id, tld_id) pos, domain_id, tld_id\n" +
+      "  FROM url_temp\n" +
+      "  NATURAL JOIN tld\n" +
+      "  NATURAL JOIN domain\n" +
+      "  ORDER BY domain_id, tld_id, pos) AS best\n" +
+      "ORDER BY pos";
+
+  private final RankingDictionary ranking;
+
+  /**
+   * Constructor sets up the table and fills it from url_temp.
+   *
+   * @param connection Connection the table is created and loaded on.
+   * @throws SQLException
+   *
+   * @see #Url(Connection, RankingDictionary)
+   */
+
+  public Url(Connection connection) throws SQLException {
+    this(connection, null);
+  }
+
+  /**
+   * Constructor calls parent constructor to set up table, which is then filled from an
+   * encoded ranking instead of url_temp.
+   *
+   * @param connection Connection the table is created and loaded on.
+   * @param ranking RankingDictionary to load from, or null to load from url_temp.
+   * @throws SQLException
+   *
+   * @see Table#Table(Connection, String, String, boolean)
+   */
+
+  public Url(Connection connection, RankingDictionary ranking) throws SQLException {
+    super(connection, name, tableDefinition(), isTemp);
+    this.ranking = ranking;
+    load();
+  }
+
+  /**
+   * Chooses the definition url is created with. A partitioned table cannot be UNLOGGED and a
+   * logged table cannot refer to unlogged ones, so when the tables are unlogged a partitioned url
+   * leaves its foreign keys to the partitions.
+   *
+   * @return the definition for the selected keys and partitioning.
+   *
+   * @see #foreignKeys()
+   */
+  static String tableDefinition() {
+    if (!Database.isPartitioned()) {
+      return Database.isSurrogateKeys() ? surrogateDefinition : definition;
+    }
+    String partitioned = Database.isSurrogateKeys() ? surrogatePartitionedDefinition : partitionedDefinition;
+    return Database.isUnloggedTables() ? partitioned.replace(foreignKeys() + ",\n  ", "") : partitioned;
+  }
+
+  /**
+   * Gives the foreign keys of url, which each partition is created with when the tables are
+   * unlogged.
+   *
+   * @return the foreign key constraints, separated as in the definitions.
+   */
+  static String foreignKeys() {
+    return "FOREIGN KEY (" + Domain.key() + ") REFERENCES domain,\n  FOREIGN KEY (tld_id) REFERENCES tld";
+  }
+
+  /**
+   * Creates table in database, partitioned by ranges of {@link Database#partitionSize()}
+   * positions when that is set. Partitions are added by {@link #createPartitions} as rows
+   * are loaded. A partitioned table cannot be UNLOGGED, so only its partitions are when the
+   * tables are unlogged.
+   *
+   * @throws SQLException
+   */
+
+  @Override
+  public void create() throws SQLException {
+    if (!Database.isPartitioned()) {
+      super.create();
+      return;
+    }
+    Statement st = this.connection.createStatement();
+    st.execute("CREATE TABLE " + name + " (" + createDefinition() + ") PARTITION BY RANGE (position);");
+    st.close();
+  }
+
+  /**
+   * Creates any missing partitions needed to hold positions up to the given one.
+   *
+   * @param connection Connection to create the partitions on.
+   * @param last long represents the highest position to be stored.
+   * @throws SQLException
+   */
+  public static void createPartitions(Connection connection, long last) throws SQLException {
+    Statement st = connection.createStatement();
+    for (int partition = 0; partition <= (last - 1) / Database.partitionSize(); partition++) {
+      st.execute((Database.isUnloggedTables() ? "CREATE UNLOGGED TABLE IF NOT EXISTS " : "CREATE TABLE IF NOT EXISTS ")
+          + partitionName(partition) + " PARTITION OF " + name
+          + (Database.isUnloggedTables() ? " (" + foreignKeys() + ")" : "")
+          + " FOR VALUES " + bounds(partition) + ";");
+    }
+    st.close();
+  }
+
+  /**
+   * Replaces a partition by a table holding the given rows. The table is filled before it is
+   * attached, so only this range of positions is rewritten, and it takes the partition's name.
+   *
+   * @param connection Connection to replace the partition on, inside a transaction.
+   * @param partition int represents the number of the partition.
+   * @param rows String represents a query for the position, domain key and tld_id of its rows.
+   * @throws SQLException
+   */
+  public static void replacePartition(Connection connection, int partition, String rows) throws SQLException {
+    String table = partitionName(partition);
+    String replacement = table + "_new";
+    Statement st = connection.createStatement();
+    st.execute((Database.isUnloggedTables() ? "CREATE UNLOGGED TABLE " : "CREATE TABLE ") + replacement
+        + " (LIKE " + table + " INCLUDING CONSTRAINTS"
+        + (Database.isUnloggedTables() ? ", " + foreignKeys() : "") + ");");
+    st.execute("INSERT INTO " + replacement + " (position, " + Domain.key() + ", tld_id) " + rows + ";");
+    // dropping the old table first lets the indexes built on attach take its index names
+    st.execute("ALTER TABLE " + name + " DETACH PARTITION " + table + ";");
+    st.execute("DROP TABLE " + table + ";");
+    st.execute("ALTER TABLE " + replacement + " RENAME TO " + table + ";");
+    st.execute("ALTER TABLE " + name + " ATTACH PARTITION " + table + " FOR VALUES " + bounds(partition) + ";");
+    st.close();
+  }
+
+  /**
+   * Gets the name of the table holding a partition.
+   *
+   * @param partition int represents the number of the partition.
+   * @return the table name.
+   */
+  public static String partitionName(int partition) {
+    return name + "_p" + partition;
+  }
+
+  private static String bounds(int partition) {
+    long size = Database.partitionSize();
+    long to = (partition + 1) * size + 1;
+    return "FROM (" + (partition * size + 1) + ") TO ("
+        + (to > Integer.MAX_VALUE ? "MAXVALUE" : Long.toString(to)) + ")";
+  }
+
+  /**
+   * Inserts data from url_temp into table.
+   *
+   * @throws SQLException
+   */
+
+  @Override
+  public void insertData() throws SQLException {
+    boolean partitioned = Database.isPartitioned();
+
+    if (this.ranking != null) {
+      if (partitioned && this.ranking.size() > 0) {
+        createPartitions(this.connection, this.ranking.position(this.ranking.size() - 1));
+      }
+      dictionaryData();
+      return;
+    }
+
+    if (partitioned) {
+      ResultSet rs = Database.executeSelect(this.connection, "SELECT coalesce(max(pos), 0) FROM url_temp;");
+      rs.next();
+      createPartitions(this.connection, rs.getLong(1));
+      rs.close();
+    }
+
+    if (Database.isServerIngest()) {
+      serverData();
+      return;
+    }
+
+    long start = System.nanoTime();
+    boolean surrogate = Database.isSurrogateKeys();
+    PreparedStatement preparedStatement;
+	  preparedStatement = this.connection.prepareStatement(surrogate ? surrogateInsertQuery : insertQuery);
+	  ResultSet rs;
+	  if (surrogate) {
+	    rs = Database.executeSelect(this.connection, partitioned ? surrogateDistinctQuery : surrogateSelectQuery);
+	  } else {
+	    rs = Database.executeSelect(this.connection, partitioned ? distinctQuery
+	      : "SELECT pos, domain_name, tld_id "
+		  		+ "FROM url_temp "
+		  		+ "NATURAL JOIN tld "
+		  		+ "WHERE url_temp.tld1 = tld.tld1 AND url_temp.tld2 = tld.tld2 "
+		  		+ "ORDER BY pos;");
+	  }
+
+	  try {
+	    while (rs.next()) {
+		  preparedStatement.setInt(1, rs.getInt(1));
+		  if (surrogate) {
+		    preparedStatement.setInt(2, rs.getInt(2));
+		  } else {
+		    preparedStatement.setString(2, rs.getString(2));
+		  }
+		  preparedStatement.setInt(3, rs.getInt(3));
+		  preparedStatement.addBatch();
+	    }
+	  } catch (SQLException e) {
+	    e.printStackTrace();
+	  }
+	  rs.close();
+
+	  // rows skipped by ON CONFLICT DO NOTHING count 0, so the statements are not the rows
+	  long rows = 0;
+	  boolean counted = true;
+	  for (int count : Database.metrics.executeBatch(name, preparedStatement)) {
+	    rows += Math.max(count, 0);
+	    counted &= count != Statement.SUCCESS_NO_INFO;
+	  }
+	  preparedStatement.close();
+	  if (!counted) {
+	    rs = Database.executeSelect(this.connection, "SELECT count(*) FROM " + name + ";");
+	    rs.next();
+	    rows = rs.getLong(1);
+	    rs.close();
+	  }
+	  Database.reportLoad(name, rows, start);
+  }
+
+  /**
+   * Inserts data from url_temp into table with a single INSERT ... SELECT, so no rows pass
+   * through the client.
+   *
+   * @throws SQLException
+   */
+
+  public void serverData() throws SQLException {
+    long start = System.nanoTime();
+    Statement st = this.connection.createStatement();
+    int rows;
+    if (Database.isSurrogateKeys()) {
+      rows = st.executeUpdate(Database.isPartitioned()
+          ? "INSERT INTO url (position, domain_id, tld_id)\n" + surrogateDistinctQuery + "\nON CONFLICT DO NOTHING"
+          : surrogateTransformQuery);
+    } else {
+      rows = st.executeUpdate(Database.isPartitioned()
+          ? "INSERT INTO url (position, domain_name, tld_id)\n" + distinctQuery + "\nON CONFLICT DO NOTHING"
+          : transformQuery);
+    }
+    st.close();
+    Database.reportLoad(name, rows, start);
+  }
+
+  /**
+   * Inserts the rows of the encoded ranking in position order.
+   *
+   * @throws SQLException
+   */
+
+  public void dictionaryData() throws SQLException {
+    long start = System.nanoTime();
+    boolean surrogate = Database.isSurrogateKeys();
+    RowLoader loader = RowLoader.open(this.connection, name, "position, " + Domain.key() + ", tld_id");
+    for (int row = 0; row < ranking.size(); row++) {
+      loader.field(ranking.position(row));
+      if (surrogate) {
+        loader.field(ranking.domain(row) + 1);
+      } else {
+        loader.field(ranking.domainName(ranking.domain(row)));
+      }
+      loader.field(ranking.tldId(row)).endRow();
+    }
+    Database.reportLoad(name, loader.finish(), start);
+  }
+
+}
+
+/**
+ * Class to represent the url view in database. Implements {@link View} abstract class.
+ *
+ * @author Hayder
+ * @version 1.0
+ *
+ * @see View
+ */
+
+class UrlView extends View {
+
+  public final static String name = "top_10_urls";
+  public final static String definition = "SELECT position, domain_name, tld1, tld2\n" +
+			"  FROM url\n" +
+			"  NATURAL JOIN tld\n" +
+			"  ORDER BY position\n" +
+			"  LIMIT 10;";
+
+  public final static String surrogateDefinition = "SELECT position, domain_name, tld1, tld2\n" +
+      "  FROM url\n" +
+      "  NATURAL JOIN domain\n" +
+      "  NATURAL JOIN tld\n" +
+      "  ORDER BY position\n" +
+      "  LIMIT 10;";
+
+  /**
+   * Constructor calls parent constructor to set up view.
+   *
+   * @param connection Connection the view is created on.
+   * @throws SQLException
+   *
+   * @see View#View(Connection, String, String)
+   */
+
+  public UrlView(Connection connection) throws SQLException {
+    super(connection, name, Database.isSurrogateKeys() ? surrogateDefinition : definition);
+  }
+
+}
+
+/**
+ * Class to represent the url view in database. Implements {@link View} abstract class.
+ *
+ * @author Hayder
+ * @version 1.0
+ *
+ * @see View
+ */
+
+class TldView extends View {
+
+  public final static String name = "top_10_tlds";
+  public final static String definition = "SELECT min(position) AS best_position, tld1, tld2, description\n" +
+			"    FROM url\n" +
+			"    NATURAL JOIN tld\n" +
+			"    JOIN mapping ON mapping.tld = tld.rightmost_tld\n" +
+			"    GROUP BY tld1, tld2, description\n" +
+			"    ORDER BY best_position\n" +
+			"    LIMIT 10;";
+
+  /**
+   * Definition used when suffixes are resolved with a {@link SuffixTrie}, which reads the
+   * description stored with each tld instead of joining the mapping table.
+   */
+  public final static String suffixDefinition = "SELECT min(position) AS best_position, tld1, tld2, description\n" +
+      "    FROM url\n" +
+      "    NATURAL JOIN tld\n" +
+      "    WHERE description IS NOT NULL\n" +
+      "    GROUP BY tld1, tld2, description\n" +
+      "    ORDER BY best_position\n" +
+      "    LIMIT 10;";
+
+  /**
+   * Constructor calls parent constructor to set up view.
+   *
+   * @param connection Connection the view is created on.
+   * @throws SQLException
+   *
+   * @see View#View(Connection, String, String)
+   */
+
+  public TldView(Connection connection) throws SQLException {
+    super(connection, name, Database.isSuffixTrie() ? suffixDefinition : definition);
+  }
+
+}
+
+/**
+ * Class to represent the url view in database. Implements {@link View} abstract class.
+ *
+ * @author Hayder
+ * @version 1.0
+ *
+ * @see View
+ */
+
+class DomainView extends View {
+
+  public final static String name = "top_10_repeated_domains";
+  public final static String definition = "SELECT min(position) AS best_position, domain_name\n" +
+			"  FROM url\n" +
+			"  GROUP BY domain_name\n" +
+			"  HAVING count(*) > 1\n" +
+			"  ORDER BY best_position\n" +
+			"  LIMIT 10;";
+
+  /**
+   * Definition used with surrogate keys. Urls are grouped by domain_id and only the names of the
+   * ten domains returned are looked up.
+   */
+  public final static String surrogateDefinition = "SELECT best_position, domain_name\n" +
+      "  FROM (SELECT min(position) AS best_position, domain_id\n" +
+      "    FROM url\n" +
+      "    GROUP BY domain_id\n" +
+      "    HAVING count(*) > 1\n" +
+      "    ORDER BY best_position\n" +
+      "    LIMIT 10) AS repeated\n" +
+      "  NATURAL JOIN domain\n" +
+      "  ORDER BY best_position;";
+
+  /**
+   * Constructor calls parent constructor to set up view.
+   *
+   * @param connection Connection the view is created on.
+   * @throws SQLException
+   *
+   * @see View#View(Connection, String, String)
+   */
+
+  public DomainView(Connection connection) throws SQLException {
+    super(connection, name, Database.isSurrogateKeys() ? surrogateDefinition : definition);
+  }
+
+}
+
+/**
+ * Class to represent the materialized form of {@link UrlView}. Implements {@link MaterializedView} abstract class.
+ *
+ * @author Hayder
+ * @version 1.0
+ *
+ * @see MaterializedView
+ */
+
+class MaterializedUrlView extends MaterializedView {
+
+  /**
+   * Constructor calls parent constructor to set up view.
+   *
+   * @param connection Connection the view is created on.
+   * @throws SQLException
+   *
+   * @see MaterializedView#MaterializedView(Connection, String, String)
+   */
+
+  public MaterializedUrlView(Connection connection) throws SQLException {
+    super(connection, UrlView.name, Database.isSurrogateKeys() ? UrlView.surrogateDefinition : UrlView.definition);
+  }
+
+  @Override
+  String uniqueKey() {
+    return "position";
+  }
+
+}
+
+/**
+ * Class to represent the materialized form of {@link TldView}. Implements {@link MaterializedView} abstract class.
+ *
+ * @author Hayder
+ * @version 1.0
+ *
+ * @see MaterializedView
+ */
+
+class MaterializedTldView extends MaterializedView {
+
+  /**
+   * Constructor calls parent constructor to set up view.
+   *
+   * @param connection Connection the view is created on.
+   * @throws SQLException
+   *
+   * @see MaterializedView#MaterializedView(Connection, String, String)
+   */
+
+  public MaterializedTldView(Connection connection) throws SQLException {
+    super(connection, TldView.name, Database.isSuffixTrie() ? TldView.suffixDefinition : TldView.definition);
+  }
+
+  @Override
+  String uniqueKey() {
+    return "tld1, tld2, description";
+  }
+
+}
+
+/**
+ * Class to represent the materialized form of {@link DomainView}. Implements {@link MaterializedView} abstract class.
+ *
+ * @author Hayder
+ * @version 1.0
+ *
+ * @see MaterializedView
+ */
+
+class MaterializedDomainView extends MaterializedView {
+
+  /**
+   * Constructor calls parent constructor to set up view.
+   *
+   * @param connection Connection the view is created on.
+   * @throws SQLException
+   *
+   * @see MaterializedView#MaterializedView(Connection, String, String)
+   */
+
+  public MaterializedDomainView(Connection connection) throws SQLException {
+    super(connection, DomainView.name,
+        Database.isSurrogateKeys() ? DomainView.surrogateDefinition : DomainView.definition);
+  }
+
+  @Override
+  String uniqueKey() {
+    return "domain_name";
+  }
+
+}
+
+/**
+ * <h1>Class to answer the report queries from an in-memory ranking.</h1>
+ *
+ * Best positions are aggregated into primitive arrays indexed by tld_id and domain in one pass
+ * over the ranking, and the top entries are picked with a bounded heap. Results match the
+ * report views row for row, so the reports can be printed without a database.
+ *
+ * @author Hayder
+ * @version 1.0
+ */
+
+class RankingReports {
+
+  private final Ranking ranking;
+  private final String[] descriptions;
+  private final int[] tldBest;
+  private final int[] domainBest;
+  private final int[] domainCount;
+
+  /**
+   * Aggregates the best position of every tld pair and domain.
+   *
+   * @param ranking Ranking holding the rows of the url table.
+   * @param mapping Map from tld to description, as in the mapping table.
+   */
+  public RankingReports(Ranking ranking, Map<String, String> mapping) {
+    this(ranking, describe(ranking, mapping));
+  }
+
+  /**
+   * Aggregates the best position of every tld pair and domain.
+   *
+   * @param ranking Ranking holding the rows of the url table.
+   * @param descriptions String array of the description of each tld pair by tld_id - 1, null if
+   *     its rightmost tld is not in the mapping table.
+   */
+  public RankingReports(Ranking ranking, String[] descriptions) {
+    this.ranking = ranking;
+    this.descriptions = descriptions;
+    this.tldBest = new int[ranking.tldCount()];
+    this.domainBest = new int[ranking.domainCount()];
+    this.domainCount = new int[ranking.domainCount()];
+
+    Arrays.fill(tldBest, Integer.MAX_VALUE);
+    Arrays.fill(domainBest, Integer.MAX_VALUE);
+
+    for (int row = 0; row < ranking.size(); row++) {
+      int position = ranking.position(row);
+      int tld = ranking.tldId(row) - 1;
+      int domain = ranking.domain(row);
+      tldBest[tld] = Math.min(tldBest[tld], position);
+      domainBest[domain] = Math.min(domainBest[domain], position);
+      domainCount[domain]++;
+    }
+  }
+
+  /**
+   * Parses the TopURLs and mapping files.
+   *
+   * @param topUrls String represents path of the TopURLs file.
+   * @param mapping String represents path of the mapping file.
+   * @return the reports over the parsed ranking.
+   * @throws IOException
+   */
+  public static RankingReports load(String topUrls, String mapping) throws IOException {
+    Map<String, String> descriptions = new HashMap<String, String>();
+    try (BufferedReader reader = new BufferedReader(new FileReader(mapping))) {
+      String line = reader.readLine();
+      while (line != null) {
+        String[] values = line.split("\t");
+        descriptions.putIfAbsent(values[0], values[1]);
+        line = reader.readLine();
+      }
+    }
+    return new RankingReports(RankingDictionary.parse(topUrls), descriptions);
+  }
+
+  /**
+   * Maps a ranking file written by {@link RankingFile#export}, without parsing it.
+   *
+   * @param file String represents path of the ranking file.
+   * @return the reports over the mapped ranking.
+   * @throws IOException
+   */
+  public static RankingReports open(String file) throws IOException {
+    RankingFile ranking = RankingFile.open(file);
+    return new RankingReports(ranking, ranking.descriptions());
+  }
+
+  /**
+   * Looks up the description of every tld pair of a ranking.
+   *
+   * @param ranking Ranking whose tld pairs are described.
+   * @param mapping Map from tld to description, as in the mapping table.
+   * @return the description of each pair by tld_id - 1, null if there is none.
+   */
+  public static String[] describe(Ranking ranking, Map<String, String> mapping) {
+    String[] descriptions = new String[ranking.tldCount()];
+    for (int id = 1; id <= ranking.tldCount(); id++) {
+      descriptions[id - 1] = mapping.get(ranking.rightmost(id));
+    }
+    return descriptions;
+  }
+
+  /**
+   * Rows of top_10_urls: position, domain_name, tld1, tld2.
+   *
+   * @param k int represents number of rows to return.
+   * @return the k best positioned urls.
+   */
+  public List<Object[]> topUrls(int k) {
+    List<Object[]> rows = new ArrayList<Object[]>();
+    for (int row = 0; row < Math.min(k, ranking.size()); row++) {
+      int tld = ranking.tldId(row);
+      rows.add(new Object[]{ranking.position(row), ranking.domainName(ranking.domain(row)),
+          ranking.tld1(tld), ranking.tld2(tld)});
+    }
+    return rows;
+  }
+
+  /**
+   * Rows of top_10_tlds: best_position, tld1, tld2, description.
+   *
+   * @param k int represents number of rows to return.
+   * @return the k best positioned tld pairs whose rightmost tld has a description.
+   */
+  public List<Object[]> topTlds(int k) {
+    List<Object[]> rows = new ArrayList<Object[]>();
+    for (int tld : smallest(tldBest, k, tld -> descriptions[tld] != null)) {
+      rows.add(new Object[]{tldBest[tld], ranking.tld1(tld + 1), ranking.tld2(tld + 1), descriptions[tld]});
+    }
+    return rows;
+  }
+
+  /**
+   * Rows of top_10_repeated_domains: best_position, domain_name.
+   *
+   * @param k int represents number of rows to return.
+   * @return the k best positioned domains that appear more than once.
+   */
+  public List<Object[]> topRepeatedDomains(int k) {
+    List<Object[]> rows = new ArrayList<Object[]>();
+    for (int domain : smallest(domainBest, k, domain -> domainCount[domain] > 1)) {
+      rows.add(new Object[]{domainBest[domain], ranking.domainName(domain)});
+    }
+    return rows;
+  }
+
+  /**
+   * Keeps only some columns of each row.
+   *
+   * @param rows List of rows to project.
+   * @param columns int array of the indexes of the columns to keep.
+   * @return the projected rows.
+   */
+  public static List<Object[]> columns(List<Object[]> rows, int... columns) {
+    List<Object[]> projected = new ArrayList<Object[]>(rows.size());
+    for (Object[] row : rows) {
+      Object[] values = new Object[columns.length];
+      for (int i = 0; i < columns.length; i++) {
+        values[i] = row[columns[i]];
+      }
+      projected.add(values);
+    }
+    return projected;
+  }
+
+  /**
+   * Finds the indexes of the k smallest values accepted by a filter using a bounded max-heap of
+   * value and index packed into a long.
+   */
+  private static int[] smallest(int[] values, int k, java.util.function.IntPredicate filter) {
+    long[] heap = new long[Math.max(k, 0)];
+    int size = 0;
+    for (int i = 0; i < values.length; i++) {
+      if (values[i] == Integer.MAX_VALUE || !filter.test(i)) {
+        continue;
+      }
+      long entry = ((long) values[i] << 32) | i;
+      if (size < k) {
+        heap[size] = entry;
+        for (int c = size++; c > 0 && heap[(c - 1) / 2] < heap[c]; c = (c - 1) / 2) {
+          long swap = heap[c];
+          heap[c] = heap[(c - 1) / 2];
+          heap[(c - 1) / 2] = swap;
+        }
+      } else if (k > 0 && entry < heap[0]) {
+        heap[0] = entry;
+        for (int p = 0; ; ) {
+          int c = 2 * p + 1;
+          if (c >= size) {
+            break;
+          }
+          if (c + 1 < size && heap[c + 1] > heap[c]) {
+            c++;
+          }
+          if (heap[p] >= heap[c]) {
+            break;
+          }
+          long swap = heap[c];
+          heap[c] = heap[p];
+          heap[p] = swap;
+          p = c;
+        }
+      }
+    }
+    long[] sorted = Arrays.copyOf(heap, size);
+    Arrays.sort(sorted);
+    int[] indexes = new int[size];
+    for (int i = 0; i < size; i++) {
+      indexes[i] = (int) sorted[i];
+    }
+    return indexes;
+  }
+
+}
+
+/**
+ * <h1>Class to store a loaded ranking in a compact columnar file that is read memory mapped.</h1>
+ *
+ * The file holds the ranking in the encoding of {@link Ranking}: a header of counts, the
+ * position, domain and tld pair of each row as three int columns, the labels and description of
+ * each tld pair, then the string dictionaries of tld labels, domain names and descriptions. Each
+ * dictionary is an int array of offsets followed by the UTF-8 bytes of its strings. Opening the
+ * file only maps it and decodes the few hundred labels and descriptions; rows and domain names are
+ * read from the mapping when asked for.
+ *
+ * A mapping is limited to 2 GB, which holds a ranking of roughly 80 million urls.
+ *
+ * @author Hayder
+ * @version 1.0
+ */
+
+class RankingFile implements Ranking {
+
+  public final static int magic = 0x524e4b31;
+
+  public final static String rankingQuery = "SELECT position, domain_name, tld1, tld2\n" +
+      "FROM url\n" +
+      "NATURAL JOIN tld\n" +
+      "ORDER BY position";
+
+  public final static String surrogateRankingQuery = "SELECT position, domain_name, tld1, tld2\n" +
+      "FROM url\n" +
+      "NATURAL JOIN domain\n" +
+      "NATURAL JOIN tld\n" +
+      "ORDER BY position";
+
+  private final ByteBuffer buffer;
+  private final int size;
+  private final int tlds;
+  private final int domains;
+  private final int positions;
+  private final int rowDomains;
+  private final int rowTlds;
+  private final int domainNames;
+  private final String[] labels;
+  private final int[] pairLabels;
+  private final String[] descriptions;
+
+  private RankingFile(ByteBuffer buffer) throws IOException {
+    if (buffer.remaining() < 24 || buffer.getInt(0) != magic) {
+      throw new IOException("Not a ranking file");
+    }
+    this.buffer = buffer;
+    this.size = buffer.getInt(4);
+    this.tlds = buffer.getInt(8);
+    int labelCount = buffer.getInt(12);
+    this.domains = buffer.getInt(16);
+    int descriptionCount = buffer.getInt(20);
+
+    this.positions = 24;
+    this.rowDomains = positions + 4 * size;
+    this.rowTlds = rowDomains + 4 * size;
+    int pairs = rowTlds + 4 * size;
+    int described = pairs + 8 * tlds;
+    int labelStrings = described + 4 * tlds;
+
+    this.labels = strings(labelStrings, labelCount);
+    this.domainNames = end(labelStrings, labelCount);
+    this.descriptions = new String[tlds];
+    String[] distinct = strings(end(domainNames, domains), descriptionCount);
+
+    this.pairLabels = new int[tlds * 2];
+    for (int i = 0; i < tlds; i++) {
+      pairLabels[i * 2] = buffer.getInt(pairs + 8 * i);
+      pairLabels[i * 2 + 1] = buffer.getInt(pairs + 8 * i + 4);
+      int description = buffer.getInt(described + 4 * i);
+      descriptions[i] = description < 0 ? null : distinct[description];
+    }
+  }
+
+  /**
+   * Maps a ranking file.
+   *
+   * @param file String represents path of the ranking file.
+   * @return the mapped ranking.
+   * @throws IOException
+   */
+  public static RankingFile open(String file) throws IOException {
+    try (FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ)) {
+      if (channel.size() > Integer.MAX_VALUE) {
+        throw new IOException("Ranking file " + file + " is larger than 2 GB");
+      }
+      return new RankingFile(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+    }
+  }
+
+  /**
+   * Reads the ranking loaded in the url, tld and mapping tables through a cursor and writes it
+   * to a ranking file.
+   *
+   * @param connection Connection to read the tables on, in the caller's transaction if autocommit is off.
+   * @param file String represents path of the ranking file, which is replaced if it exists.
+   * @throws SQLException
+   * @throws IOException
+   */
+  public static void export(Connection connection, String file) throws SQLException, IOException {
+    long start = System.nanoTime();
+    RankingDictionary ranking = new RankingDictionary();
+    Map<String, String> mapping = new HashMap<String, String>();
+
+    boolean autoCommit = connection.getAutoCommit();
+    connection.setAutoCommit(false);
+    try (Statement st = connection.createStatement()) {
+      st.setFetchSize(Database.fetchSize());
+      ResultSet rs = st.executeQuery(Database.isSurrogateKeys() ? surrogateRankingQuery : rankingQuery);
+      while (rs.next()) {
+        ranking.add(rs.getInt(1), rs.getString(2), rs.getString(3), rs.getString(4));
+      }
+      rs.close();
+      if (Database.isSuffixTrie()) {
+        // suffixes carry their own description, keyed here by the pair
+        rs = st.executeQuery("SELECT tld1 || '\t' || tld2, description FROM " + Tld.name);
+      } else {
+        rs = st.executeQuery("SELECT tld, description FROM " + Mapping.name);
+      }
+      while (rs.next()) {
+        mapping.put(rs.getString(1), rs.getString(2));
+      }
+      rs.close();
+    } finally {
+      // only a transaction started here is ended, a caller's own is left open
+      if (autoCommit) {
+        connection.rollback();
+        connection.setAutoCommit(true);
+      }
+    }
+    ranking.finish();
+
+    String[] descriptions;
+    if (Database.isSuffixTrie()) {
+      descriptions = new String[ranking.tldCount()];
+      for (int id = 1; id <= ranking.tldCount(); id++) {
+        descriptions[id - 1] = mapping.get(ranking.tld1(id) + "\t" + ranking.tld2(id));
+      }
+    } else {
+      descriptions = RankingReports.describe(ranking, mapping);
+    }
+
+    write(file, ranking, descriptions);
+    System.out.printf("Wrote %d urls to %s in %.3f s (%d bytes)%n",
+        ranking.size(), file, (System.nanoTime() - start) / 1e9, new File(file).length());
+  }
+
+  /**
+   * Writes a ranking file.
+   *
+   * @param file String represents path of the ranking file, which is replaced if it exists.
+   * @param ranking Ranking to write.
+   * @param descriptions String array of the description of each tld pair by tld_id - 1, or null.
+   * @throws IOException
+   */
+  public static void write(String file, Ranking ranking, String[] descriptions) throws IOException {
+    Map<String, Integer> labelIds = new LinkedHashMap<String, Integer>();
+    Map<String, Integer> descriptionIds = new LinkedHashMap<String, Integer>();
+    for (int id = 1; id <= ranking.tldCount(); id++) {
+      labelIds.putIfAbsent(ranking.tld1(id), labelIds.size());
+      labelIds.putIfAbsent(ranking.tld2(id), labelIds.size());
+      if (descriptions[id - 1] != null) {
+        descriptionIds.putIfAbsent(descriptions[id - 1], descriptionIds.size());
+      }
+    }
+
+    try (DataOutputStream out = new DataOutputStream(
+        new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+      out.writeInt(magic);
+      out.writeInt(ranking.size());
+      out.writeInt(ranking.tldCount());
+      out.writeInt(labelIds.size());
+      out.writeInt(ranking.domainCount());
+      out.writeInt(descriptionIds.size());
+
+      for (int row = 0; row < ranking.size(); row++) {
+        out.writeInt(ranking.position(row));
+      }
+      for (int row = 0; row < ranking.size(); row++) {
+        out.writeInt(ranking.domain(row));
+      }
+      for (int row = 0; row < ranking.size(); row++) {
+        out.writeInt(ranking.tldId(row) - 1);
+      }
+      for (int id = 1; id <= ranking.tldCount(); id++) {
+        out.writeInt(labelIds.get(ranking.tld1(id)));
+        out.writeInt(labelIds.get(ranking.tld2(id)));
+      }
+      for (int id = 1; id <= ranking.tldCount(); id++) {
+        out.writeInt(descriptions[id - 1] == null ? -1 : descriptionIds.get(descriptions[id - 1]));
+      }
+
+      writeStrings(out, new ArrayList<String>(labelIds.keySet()));
+      List<String> names = new ArrayList<String>(ranking.domainCount());
+      for (int domain = 0; domain < ranking.domainCount(); domain++) {
+        names.add(ranking.domainName(domain));
+      }
+      writeStrings(out, names);
+      writeStrings(out, new ArrayList<String>(descriptionIds.keySet()));
+    }
+  }
+
+  private static void writeStrings(DataOutputStream out, List<String> strings) throws IOException {
+    byte[][] encoded = new byte[strings.size()][];
+    int offset = 0;
+    out.writeInt(offset);
+    for (int i = 0; i < encoded.length; i++) {
+      encoded[i] = strings.get(i).getBytes(StandardCharsets.UTF_8);
+      offset += encoded[i].length;
+      out.writeInt(offset);
+    }
+    for (byte[] bytes : encoded) {
+      out.write(bytes);
+    }
+  }
+
+  /**
+   * Gets the descriptions stored with the tld pairs.
+   *
+   * @return the description of each pair by tld_id - 1, null if there is none.
+   */
+  public String[] descriptions() {
+    return descriptions.clone();
+  }
+
+  @Override
+  public int tldCount() {
+    return tlds;
+  }
+
+  @Override
+  public String tld1(int tldId) {
+    return labels[pairLabels[(tldId - 1) * 2]];
+  }
+
+  @Override
+  public String tld2(int tldId) {
+    return labels[pairLabels[(tldId - 1) * 2 + 1]];
+  }
+
+  @Override
+  public int domainCount() {
+    return domains;
+  }
+
+  @Override
+  public String domainName(int domain) {
+    return string(domainNames, domains, domain);
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public int position(int row) {
+    return buffer.getInt(positions + 4 * row);
+  }
+
+  @Override
+  public int domain(int row) {
+    return buffer.getInt(rowDomains + 4 * row);
+  }
+
+  @Override
+  public int tldId(int row) {
+    return buffer.getInt(rowTlds + 4 * row) + 1;
+  }
+
+  private String[] strings(int dictionary, int count) {
+    String[] strings = new String[count];
+    for (int i = 0; i < count; i++) {
+      strings[i] = string(dictionary, count, i);
+    }
+    return strings;
+  }
+
+  private String string(int dictionary, int count, int index) {
+    int bytes = dictionary + 4 * (count + 1);
+    int from = buffer.getInt(dictionary + 4 * index);
+    int to = buffer.getInt(dictionary + 4 * index + 4);
+    byte[] encoded = new byte[to - from];
+    buffer.get(bytes + from, encoded);
+    return new String(encoded, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Gets the offset just past a string dictionary.
+   */
+  private int end(int dictionary, int count) {
+    return dictionary + 4 * (count + 1) + buffer.getInt(dictionary + 4 * count);
+  }
+
+}
+
+/**
+ * <h1>Class to hold the complete result of a query.</h1>
+ *
+ * @author Hayder
+ * @version 1.0
+ */
+
+class QueryResult {
+
+  final String[] columns;
+  final List<Object[]> rows;
+
+  /**
+   * Constructs a new result.
+   *
+   * @param columns String array of column names.
+   * @param rows List of rows, each holding one value per column.
+   */
+  public QueryResult(String[] columns, List<Object[]> rows) {
+    this.columns = columns;
+    this.rows = rows;
+  }
+
+  /**
+   * Reads every row of a resultset and closes it.
+   *
+   * @param rs ResultSet to read.
+   * @return the result.
+   * @throws SQLException
+   */
+  public static QueryResult read(ResultSet rs) throws SQLException {
+    try {
+      ResultSetMetaData rsmd = rs.getMetaData();
+      String[] columns = new String[rsmd.getColumnCount()];
+      for (int i = 0; i < columns.length; i++) {
+        columns[i] = rsmd.getColumnName(i + 1);
+      }
+
+      List<Object[]> rows = new ArrayList<Object[]>();
+      while (rs.next()) {
+        Object[] row = new Object[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+          row[i] = rs.getObject(i + 1);
+        }
+        rows.add(row);
+      }
+      return new QueryResult(columns, rows);
+    } finally {
+      rs.close();
+    }
+  }
+
+}
+
+/**
+ * <h1>Class to cache query results by query text.</h1>
+ *
+ * Entries are evicted least recently used first once there are more than the maximum number of
+ * entries, and are ignored once older than the maximum age or once a table load has finished
+ * since they were read, tracked by {@link Table#generation}.
+ *
+ * @author Hayder
+ * @version 1.0
+ */
+
+class QueryCache {
+
+  private final int maxEntries;
+  private final long maxAge;
+  private final LinkedHashMap<String, Entry> entries;
+
+  /**
+   * Constructs a new cache.
+   *
+   * @param maxEntries int represents the maximum number of results kept.
+   * @param maxAgeSeconds long represents how long a result may be used for.
+   */
+  public QueryCache(int maxEntries, long maxAgeSeconds) {
+    this.maxEntries = maxEntries;
+    this.maxAge = maxAgeSeconds * 1000000000L;
+    this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+        return size() > QueryCache.this.maxEntries;
+      }
+    };
+  }
+
+  /**
+   * Gets a cached result.
+   *
+   * @param query String represents the statement that was queried.
+   * @return the result, or null if it is not cached, too old or from before the last load.
+   */
+  public synchronized QueryResult get(String query) {
+    Entry entry = entries.get(query);
+    if (entry == null) {
+      return null;
+    }
+    if (entry.generation != Table.generation.get() || System.nanoTime() - entry.created > maxAge) {
+      entries.remove(query);
+      return null;
+    }
+    return entry.result;
+  }
+
+  /**
+   * Caches a result.
+   *
+   * @param query String represents the statement that was queried.
+   * @param generation long represents the load generation read before the query ran.
+   * @param result QueryResult to cache.
+   */
+  public synchronized void put(String query, long generation, QueryResult result) {
+    if (maxEntries > 0) {
+      entries.put(query, new Entry(result, generation));
+    }
+  }
+
+  /**
+   * Removes every cached result.
+   */
+  public synchronized void clear() {
+    entries.clear();
+  }
+
+  private static class Entry {
+    final QueryResult result;
+    final long generation;
+    final long created = System.nanoTime();
+
+    Entry(QueryResult result, long generation) {
+      this.result = result;
+      this.generation = generation;
+    }
+  }
+
+}
+
+/**
+ * <h1>Class to run parameterized ranking lookups on reused prepared statements.</h1>
+ *
+ * Each statement is prepared the first time it is used and kept for the life of this object, with
+ * a prepare threshold of one so the server plans it once as a named statement. Instances are tied
+ * to one connection and are not thread safe.
+ *
+ * @author Hayder
+ * @version 1.0
+ */
+
+class RankingQueries implements AutoCloseable {
+
+  public final static String topUrls = "SELECT position, domain_name, tld1, tld2\n" +
+      "FROM url\n" +
+      "NATURAL JOIN tld\n" +
+      "ORDER BY position\n" +
+      "LIMIT ?";
+
+  public final static String topUrlsForTld = "SELECT position, domain_name, tld1, tld2\n" +
+      "FROM url\n" +
+      "NATURAL JOIN tld\n" +
+      "WHERE (CASE WHEN tld.tld2 = '' THEN tld.tld1 ELSE tld.tld2 END) = ?\n" +
+      "ORDER BY position\n" +
+      "LIMIT ?";
+
+  public final static String urlsInRange = "SELECT position, domain_name, tld1, tld2\n" +
+      "FROM url\n" +
+      "NATURAL JOIN tld\n" +
+      "WHERE position BETWEEN ? AND ?\n" +
+      "ORDER BY position";
+
+  public final static String topTlds = "SELECT min(position) AS best_position, tld1, tld2, description\n" +
+      "FROM url\n" +
+      "NATURAL JOIN tld\n" +
+      "JOIN mapping ON mapping.tld = tld.rightmost_tld\n" +
+      "GROUP BY tld1, tld2, description\n" +
+      "ORDER BY best_position\n" +
+      "LIMIT ?";
+
+  public final static String topRepeatedDomains = "SELECT min(position) AS best_position, domain_name\n" +
+      "FROM url\n" +
+      "GROUP BY domain_name\n" +
+      "HAVING count(*) > 1\n" +
+      "ORDER BY best_position\n" +
+      "LIMIT ?";
+
+  /**
+   * Form of {@link #topTlds} used when suffixes are resolved with a {@link SuffixTrie}, which
+   * reads the description stored with each tld.
+   */
+  public final static String suffixTopTlds = "SELECT min(position) AS best_position, tld1, tld2, description\n" +
+      "FROM url\n" +
+      "NATURAL JOIN tld\n" +
+      "WHERE description IS NOT NULL\n" +
+      "GROUP BY tld1, tld2, description\n" +
+      "ORDER BY best_position\n" +
+      "LIMIT ?";
+
+  /**
+   * Forms of the url lookups used with surrogate keys, which look up domain names in domain.
+   */
+  public final static String surrogateTopUrls = "SELECT position, domain_name, tld1, tld2\n" +
+      "FROM url\n" +
+      "NATURAL JOIN domain\n" +
+      "NATURAL JOIN tld\n" +
+      "ORDER BY position\n" +
+      "LIMIT ?";
+
+  public final static String surrogateTopUrlsForTld = "SELECT position, domain_name, tld1, tld2\n" +
+      "FROM url\n" +
+      "NATURAL JOIN domain\n" +
+      "NATURAL JOIN tld\n" +
+      "WHERE (CASE WHEN tld.tld2 = '' THEN tld.tld1 ELSE tld.tld2 END) = ?\n" +
+      "ORDER BY position\n" +
+      "LIMIT ?";
+
+  public final static String surrogateUrlsInRange = "SELECT position, domain_name, tld1, tld2\n" +
+      "FROM url\n" +
+      "NATURAL JOIN domain\n" +
+      "NATURAL JOIN tld\n" +
+      "WHERE position BETWEEN ? AND ?\n" +
+      "ORDER BY position";
+
+  public final static String surrogateTopRepeatedDomains = "SELECT best_position, domain_name\n" +
+      "FROM (SELECT min(position) AS best_position, domain_id\n" +
+      "  FROM url\n" +
+      "  GROUP BY domain_id\n" +
+      "  HAVING count(*) > 1\n" +
+      "  ORDER BY best_position\n" +
+      "  LIMIT ?) AS repeated\n" +
+      "NATURAL JOIN domain\n" +
+      "ORDER BY best_position";
+
+  public final static String bestPositions = "SELECT snapshot, min(position) AS best_position\n" +
+      "FROM ranking_snapshot\n" +
+      "WHERE domain_name = ?\n" +
+      "GROUP BY snapshot\n" +
+      "ORDER BY snapshot";
+
+  public final static String biggestMovers = "SELECT domain_name, tld1, tld2, a.position AS from_position,\n" +
+      "  b.position AS to_position, a.position - b.position AS change\n" +
+      "FROM (SELECT domain_name, tld1, tld2, min(position) AS position FROM ranking_snapshot\n" +
+      "  WHERE snapshot = ? GROUP BY domain_name, tld1, tld2) a\n" +
+      "JOIN (SELECT domain_name, tld1, tld2, min(position) AS position FROM ranking_snapshot\n" +
+      "  WHERE snapshot = ? GROUP BY domain_name, tld1, tld2) b USING (domain_name, tld1, tld2)\n" +
+      "ORDER BY abs(a.position - b.position) DESC, b.position\n" +
+      "LIMIT ?";
+
+  private final Connection connection;
+  private final Map<String, PreparedStatement> statements = new HashMap<String, PreparedStatement>();
+
+  /**
+   * Constructs a new set of lookups.
+   *
+   * @param connection Connection to prepare the statements on.
+   */
+  public RankingQueries(Connection connection) {
+    this.connection = connection;
+  }
+
+  /**
+   * Finds the best positioned urls.
+   *
+   * @param n int represents number of urls to return.
+   * @return position, domain_name, tld1 and tld2 of each url.
+   * @throws SQLException
+   */
+  public QueryResult topUrls(int n) throws SQLException {
+    PreparedStatement ps = prepare(Database.isSurrogateKeys() ? surrogateTopUrls : topUrls);
+    ps.setInt(1, n);
+    return QueryResult.read(ps.executeQuery());
+  }
+
+  /**
+   * Finds the best positioned urls whose rightmost tld matches.
+   *
+   * @param tld String represents the rightmost tld, for example <code>uk</code>.
+   * @param n int represents number of urls to return.
+   * @return position, domain_name, tld1 and tld2 of each url.
+   * @throws SQLException
+   */
+  public QueryResult topUrlsForTld(String tld, int n) throws SQLException {
+    PreparedStatement ps = prepare(Database.isSurrogateKeys() ? surrogateTopUrlsForTld : topUrlsForTld);
+    ps.setString(1, tld);
+    ps.setInt(2, n);
+    return QueryResult.read(ps.executeQuery());
+  }
+
+  /**
+   * Finds the urls between two positions, inclusive.
+   *
+   * @param from int represents the first position.
+   * @param to int represents the last position.
+   * @return position, domain_name, tld1 and tld2 of each url.
+   * @throws SQLException
+   */
+  public QueryResult urlsInRange(int from, int to) throws SQLException {
+    PreparedStatement ps = prepare(Database.isSurrogateKeys() ? surrogateUrlsInRange : urlsInRange);
+    ps.setInt(1, from);
+    ps.setInt(2, to);
+    return QueryResult.read(ps.executeQuery());
+  }
+
+  /**
+   * Finds the best positioned distinct tld pairs with a description.
+   *
+   * @param n int represents number of tld pairs to return.
+   * @return best_position, tld1, tld2 and description of each pair.
+   * @throws SQLException
+   */
+  public QueryResult topTlds(int n) throws SQLException {
+    PreparedStatement ps = prepare(Database.isSuffixTrie() ? suffixTopTlds : topTlds);
+    ps.setInt(1, n);
+    return QueryResult.read(ps.executeQuery());
+  }
+
+  /**
+   * Finds the best positioned domains that appear more than once.
+   *
+   * @param n int represents number of domains to return.
+   * @return best_position and domain_name of each domain.
+   * @throws SQLException
+   */
+  public QueryResult topRepeatedDomains(int n) throws SQLException {
+    PreparedStatement ps = prepare(Database.isSurrogateKeys() ? surrogateTopRepeatedDomains : topRepeatedDomains);
+    ps.setInt(1, n);
+    return QueryResult.read(ps.executeQuery());
+  }
+
+  /**
+   * Finds the best position a domain name held in each loaded snapshot.
+   *
+   * @param domain String represents the domain name, for example <code>google</code>.
+   * @return snapshot and best_position, oldest snapshot first.
+   * @throws SQLException
+   *
+   * @see SnapshotHistory
+   */
+  public QueryResult bestPositions(String domain) throws SQLException {
+    PreparedStatement ps = prepare(bestPositions);
+    ps.setString(1, domain);
+    return QueryResult.read(ps.executeQuery());
+  }
+
+  /**
+   * Finds the urls whose position changed most between two snapshots. Urls missing from either
+   * snapshot are left out.
+   *
+   * @param from LocalDate of the earlier snapshot.
+   * @param to LocalDate of the later snapshot.
+   * @param n int represents number of urls to return.
+   * @return domain_name, tld1, tld2, from_position, to_position and change, which is positive for
+   * urls that moved up.
+   * @throws SQLException
+   *
+   * @see SnapshotHistory
+   */
+  public QueryResult biggestMovers(LocalDate from, LocalDate to, int n) throws SQLException {
+    PreparedStatement ps = prepare(biggestMovers);
+    ps.setObject(1, from);
+    ps.setObject(2, to);
+    ps.setInt(3, n);
+    return QueryResult.read(ps.executeQuery());
+  }
+
+  /**
+   * Closes every prepared statement.
+   *
+   * @throws SQLException
+   */
+  @Override
+  public void close() throws SQLException {
+    for (PreparedStatement ps : statements.values()) {
+      ps.close();
+    }
+    statements.clear();
+  }
+
+  private PreparedStatement prepare(String sql) throws SQLException {
+    PreparedStatement ps = statements.get(sql);
+    if (ps == null) {
+      ps = connection.prepareStatement(sql);
+      ps.unwrap(PGStatement.class).setPrepareThreshold(1);
+      statements.put(sql, ps);
+    }
+    return ps;
+  }
+
+}
+
+/**
+ * <h1>Interface for writing query results one field at a time.</h1>
+ *
+ * Column types are resolved once by the caller, which passes integers and text to the matching
+ * method, so formatters never inspect values.
+ *
+ * @author Hayder
+ * @version 1.0
+ */
+
+interface ResultFormatter {
+
+  void header(String[] columns) throws IOException;
+
+  void field(int column, long value) throws IOException;
+
+  void field(int column, String value) throws IOException;
+
+  void endRow() throws IOException;
+
+  void finish() throws IOException;
+
+  /**
+   * Creates a formatter by name.
+   *
+   * @param format String represents the format, <code>csv</code>, <code>json</code> or <code>fixed</code>.
+   * @param out Writer to write to.
+   * @param formatting String represents the printf formats used by the fixed width formatter.
+   * @return the formatter.
+   */
+  static ResultFormatter create(String format, Writer out, String formatting) {
+    switch (format) {
+      case "csv":
+        return new CsvFormatter(out);
+      case "json":
+        return new JsonLinesFormatter(out);
+      case "fixed":
+        return new FixedWidthFormatter(out, formatting);
+      default:
+        throw new IllegalArgumentException("Unknown format " + format);
+    }
+  }
+
+}
+
+/**
+ * <h1>Class to write results as fixed width columns, as the reports are printed.</h1>
+ *
+ * @author Hayder
+ * @version 1.0
+ */
+
+class FixedWidthFormatter implements ResultFormatter {
+
+  private final Writer out;
+  private final String[] format;
+
+  /**
+   * Constructs a new formatter.
+   *
+   * @param out Writer to write to.
+   * @param formatting String represents a space separated printf format per column.
+   */
+  public FixedWidthFormatter(Writer out, String formatting) {
+    this.out = out;
+    this.format = formatting.split(" ");
+  }
+
+  @Override
+  public void header(String[] columns) throws IOException {
+    for (int i = 0; i < columns.length; i++) {
+      out.write(String.format(format[i], columns[i].toUpperCase()));
+    }
+  }
+
+  @Override
+  public void field(int column, long value) throws IOException {
+    out.write(String.format(format[column], value));
+  }
+
+  @Override
+  public void field(int column, String value) throws IOException {
+    out.write(String.format(format[column], value));
+  }
+
+  @Override
+  public void endRow() {
+  }
+
+  @Override
+  public void finish() throws IOException {
+    out.flush();
+  }
+
+}
+
+/**
+ * <h1>Class to write results as comma separated values with a header line.</h1>
+ *
+ * @author Hayder
+ * @version 1.0
+ */
+
+class CsvFormatter implements ResultFormatter {
+
+  private final Writer out;
+
+  /**
+   * Constructs a new formatter.
+   *
+   * @param out Writer to write to.
+   */
+  public CsvFormatter(Writer out) {
+    this.out = out;
+  }
+
+  @Override
+  public void header(String[] columns) throws IOException {
+    for (int i = 0; i < columns.length; i++) {
+      field(i, columns[i]);
+    }
+    endRow();
+  }
+
+  @Override
+  public void field(int column, long value) throws IOException {
+    if (column > 0) {
+      out.write(',');
+    }
+    out.write(Long.toString(value));
+  }
+
+  @Override
+  public void field(int column, String value) throws IOException {
+    if (column > 0) {
+      out.write(',');
+    }
+    if (value == null) {
+      return;
+    }
+    if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+      out.write(value);
+      return;
+    }
+    out.write('"');
+    out.write(value.replace("\"", "\"\""));
+    out.write('"');
+  }
+
+  @Override
+  public void endRow() throws IOException {
+    out.write('\n');
+  }
+
+  @Override
+  public void finish() throws IOException {
+    out.flush();
+  }
+
+}
+
+/**
+ * <h1>Class to write results as one JSON object per line.</h1>
+ *
+ * @author Hayder
+ * @version 1.0
+ */
+
+class JsonLinesFormatter implements ResultFormatter {
+
+  private final Writer out;
+  private String[] keys;
+
+  /**
+   * Constructs a new formatter.
+   *
+   * @param out Writer to write to.
+   */
+  public JsonLinesFormatter(Writer out) {
+    this.out = out;
+  }
+
+  @Override
+  public void header(String[] columns) {
+    keys = new String[columns.length];
+    for (int i = 0; i < columns.length; i++) {
+      keys[i] = (i == 0 ? "{" : ",") + quote(columns[i]) + ":";
+    }
+  }
+
+  @Override
+  public void field(int column, long value) throws IOException {
+    out.write(keys[column]);
+    out.write(Long.toString(value));
+  }
+
+  @Override
+  public void field(int column, String value) throws IOException {
+    out.write(keys[column]);
+    out.write(value == null ? "null" : quote(value));
+  }
+
+  @Override
+  public void endRow() throws IOException {
+    out.write("}\n");
+  }
+
+  @Override
+  public void finish() throws IOException {
+    out.flush();
+  }
+
+  /**
+   * Quotes a string as a JSON string literal.
+   *
+   * @param value String to quote.
+   * @return the literal.
+   */
+  static String quote(String value) {
+    StringBuilder quoted = new StringBuilder(value.length() + 2).append('"');
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      switch (c) {
+        case '"': quoted.append("\\\""); break;
+        case '\\': quoted.append("\\\\"); break;
+        case '\n': quoted.append("\\n"); break;
+        case '\r': quoted.append("\\r"); break;
+        case '\t': quoted.append("\\t"); break;
+        default:
+          if (c < 0x20) {
+            quoted.append(String.format("\\u%04x", (int) c));
+          } else {
+            quoted.append(c);
+          }
+      }
+    }
+    return quoted.append('"').toString();
+  }
+
+}
+
+/**
+ * <h1>Class to represent a query in the database.</h1>
+ *
+ * @author Hayder
+ * @version 1.0
+ */
+
+class Query {
+
+  /**
+   * Computes the rows of a query from an in-memory ranking instead of the database.
+   */
+  interface Rows {
+    List<Object[]> get(RankingReports reports);
+  }
+
+  private String title;
+  private String query;
+  private String formatting;
+  private String[] columns;
+  private Rows rows;
+
+  /**
+   * Constructor initialises the instance fields of this class.
+   *
+   * @param title String represents the title to be displayed for this query.
+   * @param query String represents the actual statment to query.
+   * @param formatting String represents how the query results should be formatted.
+   * @throws SQLException
+   */
+
+  public Query(String title, String query, String formatting) throws SQLException {
+    this.title = title;
+    this.query = query;
+    this.formatting = formatting;
+  }
+
+  /**
+   * Iterates through resultset of query and prints the formatted results to console. Results
+   * are taken from {@link Database#cache} when the query has run since the last load. The time
+   * taken is recorded in {@link Database#metrics}.
+   *
+   * @param connection Connection to run the query on.
+   * @throws SQLException
+   */
+  public void print(Connection connection) throws SQLException {
+    long start = System.nanoTime();
+    QueryResult result = read(connection);
+    print(result.columns, result.rows);
+    Database.metrics.record(this.title, "print", result.rows.size(), start);
+  }
+
+  /**
+   * Runs the query and reads all of its rows without printing them. Results are taken from
+   * {@link Database#cache} when the query has run since the last load.
+   *
+   * @param connection Connection to run the query on.
+   * @return the {@link QueryResult} of the query.
+   * @throws SQLException
+   */
+  public QueryResult read(Connection connection) throws SQLException {
+    QueryResult result = Database.cache.get(this.query);
+    if (result == null) {
+      long generation = Table.generation.get();
+      result = QueryResult.read(Database.executeSelect(connection, this.query));
+      Database.cache.put(this.query, generation, result);
+    }
+    return result;
+  }
+
+  /**
+   * Gets the title displayed for this query.
+   *
+   * @return the title.
+   */
+  public String title() {
+    return this.title;
+  }
+
+  /**
+   * Streams the results of the query to a writer without holding them in memory. The query runs
+   * in a transaction, the caller's if autocommit is off, so pgjdbc fetches rows through a cursor,
+   * {@link Database#fetchSize()} at a time, and column types are resolved once before the first row.
+   *
+   * @param connection Connection to run the query on.
+   * @param formatter ResultFormatter to write the rows with.
+   * @return number of rows written.
+   * @throws SQLException
+   * @throws IOException
+   */
+  public long stream(Connection connection, ResultFormatter formatter) throws SQLException, IOException {
+    boolean autoCommit = connection.getAutoCommit();
+    connection.setAutoCommit(false);
+    long rows = 0;
+
+    try (Statement st = connection.createStatement()) {
+      st.setFetchSize(Database.fetchSize());
+      ResultSet rs = st.executeQuery(this.query);
+      ResultSetMetaData rsmd = rs.getMetaData();
+
+      String[] columns = new String[rsmd.getColumnCount()];
+      boolean[] integer = new boolean[columns.length];
+      for (int i = 0; i < columns.length; i++) {
+        columns[i] = rsmd.getColumnName(i + 1);
+        int type = rsmd.getColumnType(i + 1);
+        integer[i] = type == Types.INTEGER || type == Types.SMALLINT || type == Types.BIGINT;
+      }
+      formatter.header(columns);
+
+      while (rs.next()) {
+        for (int i = 0; i < columns.length; i++) {
+          if (integer[i]) {
+            long value = rs.getLong(i + 1);
+            if (rs.wasNull()) {
+              formatter.field(i, (String) null);
+            } else {
+              formatter.field(i, value);
+            }
+          } else {
+            formatter.field(i, rs.getString(i + 1));
+          }
+        }
+        formatter.endRow();
+        rows++;
+      }
+      rs.close();
+      formatter.finish();
+    } finally {
+      // only a transaction started here is ended, a caller's own is left open
+      if (autoCommit) {
+        connection.rollback();
+        connection.setAutoCommit(true);
+      }
+    }
+    return rows;
+  }
+
+  /**
+   * Gets how the query results should be formatted.
+   *
+   * @return space separated printf formats, one per column.
+   */
+  public String formatting() {
+    return this.formatting;
+  }
+
+  /**
+   * Gives the query an in-memory equivalent that returns the same rows as the SQL.
+   *
+   * @param columns String array of the column names the SQL returns.
+   * @param rows Rows computing the result from a {@link RankingReports}.
+   * @return this query.
+   */
+  public Query inMemory(String[] columns, Rows rows) {
+    this.columns = columns;
+    this.rows = rows;
+    return this;
+  }
+
+  /**
+   * Computes the query in memory and prints the formatted results to console.
+   *
+   * @param reports RankingReports to compute the query from.
+   */
+  public void print(RankingReports reports) {
+    print(this.columns, this.rows.get(reports));
+  }
+
+  /**
+   * Prints the formatted results of the query, already read, to console.
+   *
+   * @param result QueryResult of running the query.
+   */
+  public void print(QueryResult result) {
+    print(result.columns, result.rows);
+  }
+
+  private void print(String[] columns, List<Object[]> rows) {
+    String[] format = this.formatting.split(" ");
+
+    System.out.println("\n##" + this.title + "##\n");
+
+    for (int i = 0; i < columns.length; i++) {
+      System.out.printf(format[i], columns[i].toUpperCase());
+    }
+
+    for (Object[] row : rows) {
+      for (int i = 0; i < row.length; i++) {
+        System.out.printf(format[i], row[i]);
+      }
+    }
+    System.out.println("\n");
+  }
+
+}
+
+/**
+ * <h1>Class to run report queries at the same time and print them in order.</h1>
+ *
+ * Every query runs on its own virtual thread with a connection from the pool, so the reports take
+ * about as long as the slowest of them rather than all of them added up, and the pool size caps
+ * how many run at once. Each result is read in full before it is printed, and reports are printed
+ * in the order they were given as soon as they and every report before them are ready.
+ *
+ * @author Hayder
+ * @version 1.0
+ */
+
+class ReportRunner {
+
+  private final ConnectionPool pool;
+
+  /**
+   * Constructs a new runner.
+   *
+   * @param pool ConnectionPool providing the connections queries run on.
+   */
+  public ReportRunner(ConnectionPool pool) {
+    this.pool = pool;
+  }
+
+  /**
+   * Runs the queries and prints their results to console in order. The time each query takes to
+   * read is recorded in {@link Database#metrics}.
+   *
+   * @param queries Query array in the order the reports are printed.
+   * @throws SQLException if any of the queries fails, after the others have finished.
+   */
+  public void print(Query[] queries) throws SQLException {
+    List<Future<QueryResult>> results = new ArrayList<Future<QueryResult>>(queries.length);
+
+    try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+      for (Query query : queries) {
+        results.add(executor.submit(() -> read(query)));
+      }
+      for (int i = 0; i < queries.length; i++) {
+        queries[i].print(await(results.get(i)));
+      }
+    }
+  }
+
+  private QueryResult read(Query query) throws SQLException {
+    long start = System.nanoTime();
+    Connection connection = pool.acquire();
+    try {
+      QueryResult result = query.read(connection);
+      Database.metrics.record(query.title(), "print", result.rows.size(), start);
+      return result;
+    } finally {
+      pool.release(connection);
+    }
+  }
+
+  private static QueryResult await(Future<QueryResult> result) throws SQLException {
+    try {
+      return result.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new SQLException("Interrupted while waiting for a report", e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof SQLException) {
+        throw (SQLException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new SQLException(cause);
+    }
+  }
+
+}
+
+/**
+ * <h1>Class to apply a new ranking to the existing tables as a delta.</h1>
+ *
+ * Instead of dropping and recreating the tables, the new TopURLs and mapping files are staged in
+ * temporary tables and compared with the rows already loaded, so only inserts, position moves and
+ * deletes are applied, all in one transaction. Existing tld pairs keep their tld_id and new pairs
+ * are numbered after the current maximum in order of best position.
+ *
+ * @author Hayder
+ * @version 1.0
+ */
+
+class DeltaReload {
+
+  public final static String stagedUrls = "url_delta";
+  public final static String stagedMapping = "mapping_delta";
+
+  private final Connection connection;
+  private final Map<String, Integer> changes = new LinkedHashMap<String, Integer>();
+
+  /**
+   * Constructs a new delta reload.
+   *
+   * @param connection Connection to stage and apply the delta on.
+   */
+  public DeltaReload(Connection connection) {
+    this.connection = connection;
+  }
+
+  /**
+   * Checks whether there is a previous load to apply a delta to.
+   *
+   * @param connection Connection to check on.
+   * @return true if the mapping, tld, domain and url tables all exist, url refers to domains
+   * by the key selected now and tld stores descriptions only if suffixes are resolved with a
+   * {@link SuffixTrie}, otherwise return false.
+   * @throws SQLException
+   */
+  public static boolean applicable(Connection connection) throws SQLException {
+    for (String table : new String[]{Mapping.name, Tld.name, Domain.name, Url.name}) {
+      if (!Database.exists(connection, table, new String[]{"TABLE", "PARTITIONED TABLE"})) {
+        return false;
+      }
+    }
+    ResultSet rs = connection.getMetaData().getColumns(null, connection.getSchema(), Url.name, Domain.key());
+    boolean keyed = rs.next();
+    rs.close();
+    rs = connection.getMetaData().getColumns(null, connection.getSchema(), Tld.name, "description");
+    boolean described = rs.next();
+    rs.close();
+    return keyed && described == Database.isSuffixTrie();
+  }
+
+  /**
+   * Stages the new input files and applies the differences to the tables.
+   *
+   * @return total number of rows inserted, updated or deleted.
+   * @throws SQLException
+   */
+  public int apply() throws SQLException {
+    long start = System.nanoTime();
+    new UrlTemp(this.connection);
+    stageMapping();
+
+    connection.setAutoCommit(false);
+    try {
+      applyMapping();
+      applyTldsAndDomains();
+      applyUrls();
+      removeUnused();
+      connection.commit();
+      // url_temp bumped the generation before the delta was visible, so results read since are stale
+      Table.generation.incrementAndGet();
+    } catch (SQLException e) {
+      connection.rollback();
+      throw e;
+    } finally {
+      connection.setAutoCommit(true);
+      execute("DROP TABLE IF EXISTS " + stagedUrls + ", " + stagedMapping);
+    }
+
+    int total = 0;
+    StringBuilder summary = new StringBuilder();
+    for (Map.Entry<String, Integer> change : changes.entrySet()) {
+      total += change.getValue();
+      summary.append(summary.length() == 0 ? "" : ", ").append(change.getKey()).append(' ').append(change.getValue());
+    }
+    System.out.printf("Applied delta of %d rows in %.3f s: %s%n",
+        total, (System.nanoTime() - start) / 1e9, summary);
+    return total;
+  }
+
+  private void stageMapping() throws SQLException {
+    execute("CREATE TEMP TABLE " + stagedMapping + " (" + Mapping.definition + ")");
+    RowLoader loader = RowLoader.open(this.connection, stagedMapping, "tld, description");
+    Set<String> seen = new HashSet<String>();
+
+    try (BufferedReader reader = IngestPipeline.reader(new File("").getAbsolutePath() + "/mapping")) {
+      String line = reader.readLine();
+      while (line != null) {
+        String[] values = line.split("\t");
+        if (seen.add(values[0])) {
+          loader.field(values[0]).field(values[1]).endRow();
+        }
+        line = reader.readLine();
+      }
+    } catch (IOException e) {
+      loader.cancel();
+      throw new SQLException("Error reading mapping file", e);
+    }
+    loader.finish();
+  }
+
+  private void applyMapping() throws SQLException {
+    execute("UPDATE tld SET rightmost_tld = NULL WHERE rightmost_tld NOT IN (SELECT tld FROM " + stagedMapping + ")");
+    record("mapping deleted", "DELETE FROM mapping WHERE tld NOT IN (SELECT tld FROM " + stagedMapping + ")");
+    record("mapping updated", "UPDATE mapping SET description = d.description FROM " + stagedMapping + " d "
+        + "WHERE mapping.tld = d.tld AND mapping.description <> d.description");
+    record("mapping inserted", "INSERT INTO mapping (tld, description) SELECT tld, description FROM "
+        + stagedMapping + " ON CONFLICT DO NOTHING");
+    if (Database.isSuffixTrie()) {
+      // url_temp was resolved against the new mapping, so the tlds take the description it found
+      execute("UPDATE tld SET rightmost_tld = d.tld, description = d.description\n"
+          + "FROM (SELECT DISTINCT t.tld1, t.tld2, mapping.tld, mapping.description\n"
+          + "  FROM url_temp t LEFT JOIN mapping ON mapping.tld = t.described_tld) d\n"
+          + "WHERE tld.tld1 = d.tld1 AND tld.tld2 = d.tld2\n"
+          + "  AND (tld.rightmost_tld IS DISTINCT FROM d.tld OR tld.description IS DISTINCT FROM d.description)");
+      return;
+    }
+    execute("UPDATE tld SET rightmost_tld = mapping.tld FROM mapping WHERE tld.rightmost_tld IS NULL "
+        + "AND mapping.tld = (CASE WHEN tld.tld2 = '' THEN tld.tld1 ELSE tld.tld2 END)");
+  }
+
+  private void applyTldsAndDomains() throws SQLException {
+    if (Database.isSuffixTrie()) {
+      record("tld inserted", "INSERT INTO tld (tld_id, tld1, tld2, rightmost_tld, description)\n"
+          + "SELECT n.tld_id, n.tld1, n.tld2, mapping.tld, mapping.description\n"
+          + "FROM (SELECT (SELECT coalesce(max(tld_id), 0) FROM tld) + row_number() OVER (ORDER BY min(pos)) AS tld_id,\n"
+          + "    tld1, tld2, described_tld\n"
+          + "  FROM url_temp t\n"
+          + "  WHERE NOT EXISTS (SELECT 1 FROM tld WHERE tld.tld1 = t.tld1 AND tld.tld2 = t.tld2)\n"
+          + "  GROUP BY tld1, tld2, described_tld) n\n"
+          + "LEFT JOIN mapping ON mapping.tld = n.described_tld");
+    } else {
+      record("tld inserted", "INSERT INTO tld (tld_id, tld1, tld2, rightmost_tld)\n"
+          + "SELECT n.tld_id, n.tld1, n.tld2, mapping.tld\n"
+          + "FROM (SELECT (SELECT coalesce(max(tld_id), 0) FROM tld) + row_number() OVER (ORDER BY min(pos)) AS tld_id,\n"
+          + "    tld1, tld2\n"
+          + "  FROM url_temp t\n"
+          + "  WHERE NOT EXISTS (SELECT 1 FROM tld WHERE tld.tld1 = t.tld1 AND tld.tld2 = t.tld2)\n"
+          + "  GROUP BY tld1, tld2) n\n"
+          + "LEFT JOIN mapping ON mapping.tld = (CASE WHEN n.tld2 = '' THEN n.tld1 ELSE n.tld2 END)");
+    }
+    if (Database.isSurrogateKeys()) {
+      // new domains are numbered after the current maximum, existing ones keep their domain_id
+      record("domain inserted", "INSERT INTO domain (domain_id, domain_name)\n"
+          + "SELECT (SELECT coalesce(max(domain_id), 0) FROM domain)\n"
+          + "    + row_number() OVER (ORDER BY domain_name COLLATE \"C\"), domain_name\n"
+          + "FROM url_temp t\n"
+          + "WHERE NOT EXISTS (SELECT 1 FROM domain WHERE domain.domain_name = t.domain_name)\n"
+          + "GROUP BY domain_name");
+    } else {
+      record("domain inserted", "INSERT INTO domain (domain_name) SELECT DISTINCT domain_name FROM url_temp "
+          + "ON CONFLICT DO NOTHING");
+    }
+  }
+
+  private void applyUrls() throws SQLException {
+    String key = Domain.key();
+    execute("CREATE TEMP TABLE " + stagedUrls + " AS\n"
+        + "SELECT DISTINCT ON (" + key + ", tld_id) pos AS position, " + key + ", tld_id\n"
+        + "FROM url_temp\n"
+        + "NATURAL JOIN tld\n"
+        + (Database.isSurrogateKeys() ? "NATURAL JOIN domain\n" : "")
+        + "ORDER BY " + key + ", tld_id, pos");
+
+    if (Database.isPartitioned()) {
+      ResultSet rs = Database.executeSelect(connection, "SELECT coalesce(max(position), 0) FROM " + stagedUrls);
+      rs.next();
+      Url.createPartitions(connection, rs.getLong(1));
+      rs.close();
+      replacePartitions(key);
+      return;
+    }
+
+    record("url deleted", "DELETE FROM url u WHERE NOT EXISTS (SELECT 1 FROM " + stagedUrls + " d "
+        + "WHERE d." + key + " = u." + key + " AND d.tld_id = u.tld_id)");
+
+    // moved rows are deleted and inserted again as UNIQUE (position) cannot be deferred
+    int moved = execute("DELETE FROM url u USING " + stagedUrls + " d "
+        + "WHERE d." + key + " = u." + key + " AND d.tld_id = u.tld_id AND d.position <> u.position");
+    int inserted = execute("INSERT INTO url (position, " + key + ", tld_id)\n"
+        + "SELECT position, " + key + ", tld_id FROM " + stagedUrls + " d\n"
+        + "WHERE NOT EXISTS (SELECT 1 FROM url u WHERE u." + key + " = d." + key + " AND u.tld_id = d.tld_id)\n"
+        + "ORDER BY position\n"
+        + "ON CONFLICT DO NOTHING");
+    changes.put("url inserted", inserted - moved);
+    changes.put("url moved", moved);
+  }
+
+  /**
+   * Applies the staged urls to a partitioned url by replacing only the partitions whose rows
+   * changed, leaving the ranges the delta does not touch as they are.
+   */
+  private void replacePartitions(String key) throws SQLException {
+    String columns = "position, " + key + ", tld_id";
+    String matches = "d." + key + " = u." + key + " AND d.tld_id = u.tld_id";
+    ResultSet rs = Database.executeSelect(connection, "SELECT\n"
+        + "  (SELECT count(*) FROM url u WHERE NOT EXISTS (SELECT 1 FROM " + stagedUrls + " d WHERE " + matches + ")),\n"
+        + "  (SELECT count(*) FROM url u JOIN " + stagedUrls + " d ON " + matches + " WHERE d.position <> u.position),\n"
+        + "  (SELECT count(*) FROM " + stagedUrls + " d WHERE NOT EXISTS (SELECT 1 FROM url u WHERE " + matches + "))");
+    rs.next();
+    changes.put("url deleted", rs.getInt(1));
+    changes.put("url inserted", rs.getInt(3));
+    changes.put("url moved", rs.getInt(2));
+    rs.close();
+
+    long size = Database.partitionSize();
+    List<Integer> changed = new ArrayList<Integer>();
+    rs = Database.executeSelect(connection, "SELECT DISTINCT (position - 1) / " + size + " FROM (\n"
+        + "  (SELECT " + columns + " FROM " + stagedUrls + " EXCEPT SELECT " + columns + " FROM url)\n"
+        + "  UNION ALL\n"
+        + "  (SELECT " + columns + " FROM url EXCEPT SELECT " + columns + " FROM " + stagedUrls + ")) c\n"
+        + "ORDER BY 1");
+    while (rs.next()) {
+      changed.add(rs.getInt(1));
+    }
+    rs.close();
+
+    for (int partition : changed) {
+      Url.replacePartition(connection, partition, "SELECT " + columns + " FROM " + stagedUrls
+          + " WHERE position BETWEEN " + (partition * size + 1) + " AND " + ((partition + 1) * size)
+          + " ORDER BY position");
+    }
+    System.out.println("Replaced " + changed.size() + " url partitions");
+  }
+
+  private void removeUnused() throws SQLException {
+    record("domain deleted", "DELETE FROM domain WHERE NOT EXISTS "
+        + "(SELECT 1 FROM url_temp u WHERE u.domain_name = domain.domain_name)");
+    record("tld deleted", "DELETE FROM tld WHERE NOT EXISTS "
+        + "(SELECT 1 FROM url_temp u WHERE u.tld1 = tld.tld1 AND u.tld2 = tld.tld2)");
+  }
+
+  private void record(String change, String sql) throws SQLException {
+    changes.put(change, execute(sql));
+  }
+
+  private int execute(String sql) throws SQLException {
+    Statement st = this.connection.createStatement();
+    int rows = st.executeUpdate(sql);
+    st.close();
+    return rows;
+  }
+
+}
+
+/**
+ * <h1>Class to remember which inputs the loaded tables were built from.</h1>
+ *
+ * A successful load records the SHA-256 of each input file and a schema version in the
+ * load_fingerprint table. The schema version is {@link #schemaVersion}, to be raised whenever the
+ * table definitions change, followed by the options that change the tables' layout. On the next
+ * start, if every fingerprint still matches and the tables and views are all there, the load is
+ * skipped. The fingerprints are cleared before a load starts, so an interrupted load is never
+ * taken for a finished one.
+ *
+ * @author Hayder
+ * @version 1.0
+ */
+
+class LoadFingerprint {
+
+  public final static String name = "load_fingerprint";
+  public final static String definition = "input VARCHAR(50), fingerprint VARCHAR(200) NOT NULL,\n" +
+      "  loaded_at TIMESTAMP NOT NULL DEFAULT now(), PRIMARY KEY (input)";
+
+  public final static int schemaVersion = 1;
+
+  private final Map<String, String> fingerprints = new TreeMap<String, String>();
+
+  /**
+   * Hashes the input files and describes the schema selected by the current options.
+   *
+   * @param files String array of paths of the input files, optionally without their compression suffix.
+   * @throws IOException
+   */
+  public LoadFingerprint(String... files) throws IOException {
+    fingerprints.put("schema", schema());
+    for (String file : files) {
+      fingerprints.put(new File(file).getName(), sha256(IngestPipeline.locate(file)));
+    }
+  }
+
+  /**
+   * Describes the layout of the tables selected by the current options.
+   *
+   * @return the schema version and the options that change the tables.
+   */
+  public static String schema() {
+    return schemaVersion
+        + ";keys=" + (Database.isSurrogateKeys() ? "surrogate" : "natural")
+        + ";partition=" + Database.partitionSize()
+        + ";tables=" + (Database.isUnloggedTables() ? "unlogged" : "logged")
+        + ";views=" + (Database.isMaterializedViews() ? "materialized" : "plain")
+        + ";suffixes=" + (Database.isSuffixTrie() ? "trie" : "columns");
+  }
+
+  /**
+   * Checks whether the loaded tables were built from these inputs with this schema.
+   *
+   * @param connection Connection to check on.
+   * @return true if every fingerprint matches and the tables and views exist, otherwise return false.
+   * @throws SQLException
+   */
+  public boolean matches(Connection connection) throws SQLException {
+    if (!Database.exists(connection, name, new String[]{"TABLE"})) {
+      return false;
+    }
+    Map<String, String> recorded = new TreeMap<String, String>();
+    ResultSet rs = Database.executeSelect(connection, "SELECT input, fingerprint FROM " + name + ";");
+    while (rs.next()) {
+      recorded.put(rs.getString(1), rs.getString(2));
+    }
+    rs.close();
+    if (!recorded.equals(fingerprints) || !DeltaReload.applicable(connection)) {
+      return false;
+    }
+
+    String[] type = {Database.isMaterializedViews() ? "MATERIALIZED VIEW" : "VIEW"};
+    return Database.exists(connection, UrlView.name, type)
+        && Database.exists(connection, TldView.name, type)
+        && Database.exists(connection, DomainView.name, type);
+  }
+
+  /**
+   * Forgets the recorded fingerprints, before the tables are changed.
+   *
+   * @param connection Connection to clear them on.
+   * @throws SQLException
+   */
+  public static void clear(Connection connection) throws SQLException {
+    if (Database.exists(connection, name, new String[]{"TABLE"})) {
+      Statement st = connection.createStatement();
+      st.executeUpdate("DELETE FROM " + name + ";");
+      st.close();
+    }
+  }
+
+  /**
+   * Records these fingerprints, after a successful load.
+   *
+   * @param connection Connection to record them on.
+   * @throws SQLException
+   */
+  public void record(Connection connection) throws SQLException {
+    Statement st = connection.createStatement();
+    st.execute("CREATE TABLE IF NOT EXISTS " + name + " (" + definition + ");");
+    st.close();
+
+    connection.setAutoCommit(false);
+    try {
+      st = connection.createStatement();
+      st.executeUpdate("DELETE FROM " + name + ";");
+      st.close();
+      PreparedStatement ps = connection.prepareStatement(
+          "INSERT INTO " + name + " (input, fingerprint) VALUES (?, ?)");
+      for (Map.Entry<String, String> fingerprint : fingerprints.entrySet()) {
+        ps.setString(1, fingerprint.getKey());
+        ps.setString(2, fingerprint.getValue());
+        ps.addBatch();
+      }
+      ps.executeBatch();
+      ps.close();
+      connection.commit();
+    } catch (SQLException e) {
+      connection.rollback();
+      throw e;
+    } finally {
+      connection.setAutoCommit(true);
+    }
+  }
+
+  private static String sha256(File file) throws IOException {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+    try (InputStream in = new FileInputStream(file)) {
+      byte[] buffer = new byte[1 << 16];
+      int read = in.read(buffer);
+      while (read >= 0) {
+        digest.update(buffer, 0, read);
+        read = in.read(buffer);
+      }
+    }
+    return HexFormat.of().formatHex(digest.digest());
+  }
+
+}
+
+/**
+ * <h1>Class to load a new ranking next to the live one and swap it in at once.</h1>
+ *
+ * The tables and views are built in a shadow schema while readers keep querying the current
+ * ones. The swap then drops the live objects and moves the shadow ones into their place in a
+ * single transaction, so readers wait at most for that transaction and never see missing or
+ * half loaded tables. A failed load only loses the shadow schema.
+ *
+ * @author Hayder
+ * @version 1.0
+ */
+
+class ShadowReload {
+
+  final String schema;
+
+  /**
+   * Constructs a new reload.
+   *
+   * @param schema String represents name of the shadow schema, which is replaced if it exists.
+   */
+  public ShadowReload(String schema) {
+    this.schema = schema;
+  }
+
+  /**
+   * Creates an empty shadow schema.
+   *
+   * @param connection Connection to create it on.
+   * @throws SQLException
+   */
+  public void prepare(Connection connection) throws SQLException {
+    Statement st = connection.createStatement();
+    st.execute("DROP SCHEMA IF EXISTS " + schema + " CASCADE;");
+    st.execute("CREATE SCHEMA " + schema + ";");
+    st.close();
+  }
+
+  /**
+   * Replaces the tables and views in the current schema of a connection with those in the
+   * shadow schema, then drops the shadow schema.
+   *
+   * @param connection Connection whose current schema is the live one.
+   * @throws SQLException
+   */
+  public void swap(Connection connection) throws SQLException {
+    long start = System.nanoTime();
+    String live = connection.getSchema();
+    String[] tables = {Url.name, Domain.name, Tld.name, Mapping.name};
+
+    connection.setAutoCommit(false);
+    try (Statement st = connection.createStatement()) {
+      Database.dropViews(connection);
+      for (String table : tables) {
+        st.execute("DROP TABLE IF EXISTS " + live + "." + table + " CASCADE;");
+      }
+
+      // partitions are tables of their own and have to move along with url
+      List<String> moved = new ArrayList<String>(Arrays.asList(tables));
+      ResultSet rs = st.executeQuery("SELECT c.relname FROM pg_inherits i\n"
+          + "JOIN pg_class c ON c.oid = i.inhrelid\n"
+          + "JOIN pg_class p ON p.oid = i.inhparent\n"
+          + "JOIN pg_namespace n ON n.oid = p.relnamespace\n"
+          + "WHERE p.relname = '" + Url.name + "' AND n.nspname = '" + schema + "'");
+      while (rs.next()) {
+        moved.add(rs.getString(1));
+      }
+      rs.close();
+
+      for (String table : moved) {
+        st.execute("ALTER TABLE " + schema + "." + table + " SET SCHEMA " + live + ";");
+      }
+      String view = Database.isMaterializedViews() ? "MATERIALIZED VIEW" : "VIEW";
+      for (String name : new String[]{UrlView.name, TldView.name, DomainView.name}) {
+        st.execute("ALTER " + view + " " + schema + "." + name + " SET SCHEMA " + live + ";");
+      }
+      connection.commit();
+    } catch (SQLException e) {
+      connection.rollback();
+      throw e;
+    } finally {
+      connection.setAutoCommit(true);
+    }
+    Table.generation.incrementAndGet();
+    System.out.printf("Swapped %s into %s in %.3f s%n", schema, live, (System.nanoTime() - start) / 1e9);
+
+    discard(connection);
+  }
+
+  /**
+   * Drops the shadow schema and anything left in it.
+   *
+   * @param connection Connection to drop it on.
+   * @throws SQLException
+   */
+  public void discard(Connection connection) throws SQLException {
+    Statement st = connection.createStatement();
+    st.execute("DROP SCHEMA IF EXISTS " + schema + " CASCADE;");
+    st.close();
+  }
+
+}
+
+/**
+ * <h1>Class to keep the rankings of many days in one table.</h1>
+ *
+ * Each snapshot file is named with its date, e.g. <code>TopURLs-2024-01-31</code>, and becomes a
+ * partition of ranking_snapshot holding that day's ranking. Partitions are loaded as tables of
+ * their own, so files load in parallel without locking each other, and are attached when
+ * complete. Snapshots that are already attached are not loaded again.
+ *
+ * @author Hayder
+ * @version 1.0
+ */
+
+class SnapshotHistory {
+
+  public final static String name = "ranking_snapshot";
+  public final static String definition = "snapshot DATE NOT NULL, position INT NOT NULL,\n" +
+      "  domain_name VARCHAR(50) NOT NULL, tld1 VARCHAR(15) NOT NULL, tld2 VARCHAR(15) NOT NULL,\n" +
+      "  PRIMARY KEY (snapshot, position)";
+
+  private final static Pattern date = Pattern.compile("(\\d{4})-?(\\d{2})-?(\\d{2})");
+
+  /**
+   * Creates ranking_snapshot if it does not exist yet, with an index for looking up a domain
+   * across snapshots.
+   *
+   * @param connection Connection to create it on.
+   * @throws SQLException
+   */
+  public static void create(Connection connection) throws SQLException {
+    Statement st = connection.createStatement();
+    st.execute("CREATE TABLE IF NOT EXISTS " + name + " (" + definition + ") PARTITION BY LIST (snapshot);");
+    st.execute("CREATE INDEX IF NOT EXISTS " + name + "_domain_idx ON " + name
+        + " (domain_name, snapshot, position);");
+    st.close();
+  }
+
+  /**
+   * Finds the dated snapshot files in a directory. When several files have the same date, e.g.
+   * <code>TopURLs-2024-01-31</code> and <code>TopURLs-2024-01-31.gz</code>, the first by name is
+   * used and the others are reported.
+   *
+   * @param directory String represents path of the directory.
+   * @return the files by date, oldest first. Files without a date in their name are left out.
+   */
+  public static Map<LocalDate, File> files(String directory) {
+    Map<LocalDate, File> files = new TreeMap<LocalDate, File>();
+    File[] listed = new File(directory).listFiles();
+    if (listed == null) {
+      return files;
+    }
+    Arrays.sort(listed);
+    for (File file : listed) {
+      Matcher matcher = date.matcher(file.getName());
+      if (file.isFile() && matcher.find()) {
+        try {
+          LocalDate snapshot = date(matcher);
+          File first = files.putIfAbsent(snapshot, file);
+          if (first != null) {
+            System.out.println("Skipping " + file.getName() + ": " + first.getName() + " has the same date");
+          }
+        } catch (DateTimeException e) {
+          System.out.println("Skipping " + file.getName() + ": " + e.getMessage());
+        }
+      }
+    }
+    return files;
+  }
+
+  /**
+   * Parses two dates separated by a comma, written as in the snapshot file names.
+   *
+   * @param text String represents the dates, e.g. <code>2024-01-31,2024-02-29</code>.
+   * @return the two dates, or null if the text does not hold exactly two valid dates.
+   */
+  public static LocalDate[] dates(String text) {
+    String[] parts = text.split(",", -1);
+    if (parts.length != 2) {
+      return null;
+    }
+    LocalDate[] dates = new LocalDate[2];
+    for (int i = 0; i < 2; i++) {
+      Matcher matcher = date.matcher(parts[i].trim());
+      if (!matcher.matches()) {
+        return null;
+      }
+      try {
+        dates[i] = date(matcher);
+      } catch (DateTimeException e) {
+        return null;
+      }
+    }
+    return dates;
+  }
+
+  private static LocalDate date(Matcher matcher) {
+    return LocalDate.of(Integer.parseInt(matcher.group(1)), Integer.parseInt(matcher.group(2)),
+        Integer.parseInt(matcher.group(3)));
+  }
+
+  /**
+   * Gets the name of the partition holding a snapshot.
+   *
+   * @param snapshot LocalDate of the snapshot.
+   * @return the table name.
+   */
+  public static String partitionName(LocalDate snapshot) {
+    return name + "_" + snapshot.format(DateTimeFormatter.BASIC_ISO_DATE);
+  }
+
+  /**
+   * Loads one snapshot file into a new table and attaches it as the snapshot's partition, all
+   * in one transaction, so a failed load leaves no partial snapshot behind. Plain files are
+   * memory mapped, compressed ones are read through an {@link IngestPipeline}.
+   *
+   * @param connection Connection to load on.
+   * @param snapshot LocalDate of the snapshot.
+   * @param file File holding the ranking in the TopURLs format.
+   * @throws SQLException also if the file cannot be read.
+   */
+  public static void load(Connection connection, LocalDate snapshot, File file) throws SQLException {
+    long start = System.nanoTime();
+    String partition = partitionName(snapshot);
+    boolean pipelined = Database.isPipelinedParser() || IngestPipeline.isCompressed(file.getPath());
+
+    TopUrlsParser.Segment[] segments = null;
+    if (!pipelined) {
+      try {
+        segments = TopUrlsParser.parse(file.getPath());
+      } catch (IOException e) {
+        throw new SQLException("Error reading snapshot " + file.getName(), e);
+      }
+    }
+
+    connection.setAutoCommit(false);
+    try {
+      Statement st = connection.createStatement();
+      // the check lets ATTACH skip scanning the rows, the default fills in the date while loading
+      st.execute("CREATE TABLE " + partition + " (LIKE " + name + ", "
+          + "CHECK (snapshot = DATE '" + snapshot + "'));");
+      st.execute("ALTER TABLE " + partition + " ALTER snapshot SET DEFAULT DATE '" + snapshot + "';");
+
+      RowLoader loader = RowLoader.open(connection, partition, "position, domain_name, tld1, tld2");
+      long rows;
+      if (pipelined) {
+        try {
+          rows = IngestPipeline.run(file.getPath(), UrlTemp::fields, loader);
+        } catch (IOException e) {
+          throw new SQLException("Error reading snapshot " + file.getName(), e);
+        }
+      } else {
+        TopUrlsParser.forEach(segments, (pos, domain, tld1, tld2) ->
+            loader.field(pos).field(domain).field(tld1).field(tld2).endRow());
+        rows = loader.finish();
+      }
+
+      st.execute("ALTER TABLE " + name + " ATTACH PARTITION " + partition
+          + " FOR VALUES IN (DATE '" + snapshot + "');");
+      st.close();
+      connection.commit();
+      Table.generation.incrementAndGet();
+      Database.reportLoad(partition, rows, start);
+    } catch (SQLException e) {
+      connection.rollback();
+      throw e;
+    } finally {
+      connection.setAutoCommit(true);
+    }
+  }
+
+}
+
+/**
+ * <h1>Class to hand out a small, fixed number of database connections.</h1>
+ *
+ * Connections are opened lazily up to the pool size, after which callers wait for one to be
+ * released.
+ *
+ * @author Hayder
+ * @version 1.0
+ */
+
+class ConnectionPool {
+
+  private final String database;
+  private final String user;
+  private final String password;
+  private final int size;
+  private final BlockingQueue<Connection> idle = new LinkedBlockingQueue<Connection>();
+  private final List<Connection> opened = new ArrayList<Connection>();
+
+  /**
+   * Constructs a new pool.
+   *
+   * @param database String represents the name of database (including the username).
+   * @param user String represents username for database.
+   * @param password String represents the password for user.
+   * @param size int represents the maximum number of open connections.
+   * @param first Connection already opened to the database which becomes part of the pool.
+   */
+  public ConnectionPool(String database, String user, String password, int size, Connection first) {
+    this.database = database;
+    this.user = user;
+    this.password = password;
+    this.size = Math.max(1, size);
+    this.opened.add(first);
+    this.idle.add(first);
+  }
+
+  /**
+   * Takes a connection from the pool, opening a new one if the pool is not full yet and waiting
+   * for one to be released otherwise.
+   *
+   * @return a {@link Connection} in autocommit mode.
+   * @throws SQLException
+   */
+  public Connection acquire() throws SQLException {
+    Connection connection = idle.poll();
+    if (connection != null) {
+      return connection;
+    }
+    synchronized (opened) {
+      if (opened.size() < size) {
+        connection = DriverManager.getConnection(database, user, password);
+        opened.add(connection);
+        return connection;
+      }
+    }
+    try {
+      return idle.take();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new SQLException("Interrupted while waiting for a connection", e);
+    }
+  }
+
+  /**
+   * Returns a connection to the pool, rolling back anything left uncommitted on it.
+   *
+   * @param connection Connection previously returned by {@link #acquire()}.
+   * @throws SQLException
+   */
+  public void release(Connection connection) throws SQLException {
+    if (!connection.getAutoCommit()) {
+      connection.rollback();
+      connection.setAutoCommit(true);
+    }
+    idle.add(connection);
+  }
+
+  /**
+   * Gets the maximum number of open connections.
+   *
+   * @return the pool size.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Closes every connection opened by the pool.
+   */
+  public void close() {
+    synchronized (opened) {
+      for (Connection connection : opened) {
+        try {
+          connection.close();
+        } catch (SQLException e) {
+          e.printStackTrace();
+        }
+      }
+      opened.clear();
+      idle.clear();
+    }
+  }
+
+}
+
+/**
+ * <h1>Class to run table and view loads concurrently while respecting their dependencies.</h1>
+ *
+ * Steps are only collected until {@link #run()} starts them, so a load that gives up while adding
+ * them has changed nothing. Each step runs on a pooled connection once the steps it depends on
+ * have finished. Steps that
+ * name the same session run one after another on a single connection, which is needed for
+ * anything using a TEMP table. A session keeps its connection between its steps, so when there
+ * are as many sessions as pooled connections a session only takes one once every step its steps
+ * wait for outside the session has finished. Otherwise sessions could hold every connection while
+ * waiting for steps that need one. Steps can be pointed at a schema other than the connection's
+ * default, in which case every object they create or look up without a schema is in it.
+ *
+ * @author Hayder
+ * @version 1.0
+ */
+
+class LoadScheduler {
+
+  /**
+   * Work done by a step on the connection it is given.
+   */
+  interface Step {
+    void run(Connection connection) throws SQLException;
+  }
+
+  private final ConnectionPool pool;
+  private final String schema;
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+  private final Map<String, CompletableFuture<Void>> steps = new LinkedHashMap<String, CompletableFuture<Void>>();
+  private final Map<String, Session> sessions = new HashMap<String, Session>();
+  private final Map<String, Set<Session>> upstream = new HashMap<String, Set<Session>>();
+  private final CompletableFuture<Void> started = new CompletableFuture<Void>();
+
+  /**
+   * Constructs a new scheduler running steps in the default schema.
+   *
+   * @param pool ConnectionPool providing the connections steps run on.
+   */
+  public LoadScheduler(ConnectionPool pool) {
+    this(pool, null);
+  }
+
+  /**
+   * Constructs a new scheduler.
+   *
+   * @param pool ConnectionPool providing the connections steps run on.
+   * @param schema String represents the schema steps run in, or null for the default.
+   */
+  public LoadScheduler(ConnectionPool pool, String schema) {
+    this.pool = pool;
+    this.schema = schema;
+  }
+
+  /**
+   * Adds a step, which only starts once {@link #run()} is called. Dependencies must already have
+   * been added.
+   *
+   * @param name String represents name of the step.
+   * @param session String represents the session the step shares a connection with, or null for any connection.
+   * @param step Step to run.
+   * @param dependsOn String array of names of the steps that must finish first.
+   */
+  public void add(String name, String session, Step step, String... dependsOn) {
+    List<CompletableFuture<Void>> before = new ArrayList<CompletableFuture<Void>>();
+    before.add(started);
+    Session shared = session == null ? null : sessions.computeIfAbsent(session, key -> new Session());
+    Set<Session> reached = new HashSet<Session>();
+    for (String dependency : dependsOn) {
+      CompletableFuture<Void> future = steps.get(dependency);
+      if (future == null) {
+        throw new IllegalArgumentException("Unknown dependency " + dependency + " of " + name);
+      }
+      before.add(future);
+      reached.addAll(upstream.get(dependency));
+      // waiting for a step that itself waits for this session would never end
+      if (shared != null && !upstream.get(dependency).contains(shared)) {
+        shared.dependencies.add(future);
+      }
+    }
+
+    if (shared != null) {
+      before.add(shared.last);
+      shared.pending++;
+      reached.add(shared);
+    }
+
+    Session owner = shared;
+    CompletableFuture<Void> future = CompletableFuture
+        .allOf(before.toArray(new CompletableFuture<?>[0]))
+        .thenRunAsync(() -> execute(owner, step), executor);
+
+    if (shared != null) {
+      shared.last = future;
+    }
+    steps.put(name, future);
+    upstream.put(name, reached);
+  }
+
+  /**
+   * Runs all steps and waits for them to finish.
+   *
+   * @throws SQLException the first failure of a step, in which case steps depending on it are skipped.
+   */
+  public void run() throws SQLException {
+    long start = System.nanoTime();
+    for (Session session : sessions.values()) {
+      if (sessions.size() < pool.size()) {
+        session.ready.complete(null);
+      } else {
+        CompletableFuture.allOf(session.dependencies.toArray(new CompletableFuture<?>[0]))
+            .whenComplete((result, failure) -> session.ready.complete(null));
+      }
+    }
+    started.complete(null);
+    try {
+      CompletableFuture.allOf(steps.values().toArray(new CompletableFuture<?>[0])).join();
+    } catch (CompletionException e) {
+      Throwable cause = e;
+      while (cause instanceof CompletionException && cause.getCause() != null) {
+        cause = cause.getCause();
+      }
+      if (cause instanceof SQLException) {
+        throw (SQLException) cause;
+      }
+      throw new SQLException(cause);
+    } finally {
+      executor.shutdown();
+      for (Session session : sessions.values()) {
+        if (session.connection != null) {
+          release(session.connection);
+          session.connection = null;
+        }
+      }
+    }
+    System.out.printf("Loaded tables and views in %.3f s%n", (System.nanoTime() - start) / 1e9);
+  }
+
+  /**
+   * Discards the steps without running any of them.
+   */
+  public void cancel() {
+    started.cancel(false);
+    executor.shutdown();
+  }
+
+  private void execute(Session session, Step step) {
+    try {
+      if (session == null) {
+        Connection connection = acquire();
+        try {
+          step.run(connection);
+        } finally {
+          release(connection);
+        }
+      } else {
+        if (session.connection == null) {
+          session.ready.join();
+          session.connection = acquire();
+        }
+        step.run(session.connection);
+        if (--session.pending == 0) {
+          release(session.connection);
+          session.connection = null;
+        }
+      }
+    } catch (SQLException e) {
+      throw new CompletionException(e);
+    }
+  }
+
+  private Connection acquire() throws SQLException {
+    Connection connection = pool.acquire();
+    if (schema != null) {
+      connection.setSchema(schema);
+    }
+    return connection;
+  }
+
+  private void release(Connection connection) throws SQLException {
+    if (schema != null) {
+      if (!connection.getAutoCommit()) {
+        connection.rollback();
+      }
+      Statement st = connection.createStatement();
+      st.execute("RESET search_path;");
+      st.close();
+    }
+    pool.release(connection);
+  }
+
+  /**
+   * Connection shared by the steps of one session, which never run at the same time. It is
+   * taken once <code>ready</code> is complete.
+   */
+  private static class Session {
+    volatile Connection connection;
+    volatile int pending;
+    CompletableFuture<Void> last = CompletableFuture.completedFuture(null);
+    final List<CompletableFuture<Void>> dependencies = new ArrayList<CompletableFuture<Void>>();
+    final CompletableFuture<Void> ready = new CompletableFuture<Void>();
+  }
+
+}
+
+/**
+ * <h1>Class to record how long each phase of a load takes.</h1>
+ *
+ * A phase is one step of one table, view or query, e.g. loading url_temp or creating
+ * top_10_urls. Each keeps its wall time, the rows it processed and a histogram of how long every
+ * executeBatch() it ran took. Phases can be written as a JSON summary and scraped while a load
+ * runs from a local HTTP endpoint in the Prometheus text format.
+ *
+ * @author Hayder
+ * @version 1.0
+ */
+
+class LoadMetrics {
+
+  /**
+   * Upper bounds of the executeBatch() latency buckets in milliseconds.
+   */
+  public final static double[] buckets = {1, 2.5, 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000};
+
+  private final Map<String, Phase> phases = new LinkedHashMap<String, Phase>();
+  private HttpServer server;
+
+  /**
+   * Adds the time since a phase started and the rows it processed to the phase.
+   *
+   * @param object String represents the table, view or query the phase belongs to.
+   * @param step String represents what was done, e.g. <code>load</code> or <code>create</code>.
+   * @param rows long represents number of rows processed.
+   * @param start long represents {@link System#nanoTime()} when the phase started.
+   */
+  public synchronized void record(String object, String step, long rows, long start) {
+    Phase phase = phase(object, step);
+    phase.nanos += System.nanoTime() - start;
+    phase.rows += rows;
+  }
+
+  /**
+   * Runs a batch and adds its latency to the histogram of the load phase of a table.
+   *
+   * @param table String represents name of the table the batch inserts into.
+   * @param preparedStatement PreparedStatement holding the batch.
+   * @return the update counts of the batch.
+   * @throws SQLException
+   */
+  public int[] executeBatch(String table, PreparedStatement preparedStatement) throws SQLException {
+    long start = System.nanoTime();
+    int[] counts = preparedStatement.executeBatch();
+    long nanos = System.nanoTime() - start;
+
+    synchronized (this) {
+      Phase phase = phase(table, "load");
+      int bucket = 0;
+      while (bucket < buckets.length && nanos > buckets[bucket] * 1e6) {
+        bucket++;
+      }
+      phase.batchCounts[bucket]++;
+      phase.batches++;
+      phase.batchNanos += nanos;
+      phase.maxBatchNanos = Math.max(phase.maxBatchNanos, nanos);
+    }
+    return counts;
+  }
+
+  /**
+   * Writes the phases as a JSON document.
+   *
+   * @return the JSON summary.
+   */
+  public synchronized String toJson() {
+    StringBuilder json = new StringBuilder("{\"phases\":[");
+    String separator = "\n";
+    for (Phase phase : phases.values()) {
+      double seconds = phase.nanos / 1e9;
+      json.append(separator)
+          .append("{\"object\":").append(JsonLinesFormatter.quote(phase.object))
+          .append(",\"step\":").append(JsonLinesFormatter.quote(phase.step))
+          .append(String.format(Locale.ROOT, ",\"wall_ms\":%.3f", phase.nanos / 1e6))
+          .append(",\"rows\":").append(phase.rows)
+          .append(String.format(Locale.ROOT, ",\"rows_per_sec\":%.0f", seconds > 0 ? phase.rows / seconds : 0));
+      if (phase.batches > 0) {
+        json.append(",\"batches\":{\"count\":").append(phase.batches)
+            .append(String.format(Locale.ROOT, ",\"mean_ms\":%.3f", phase.batchNanos / 1e6 / phase.batches))
+            .append(String.format(Locale.ROOT, ",\"max_ms\":%.3f", phase.maxBatchNanos / 1e6))
+            .append(",\"histogram\":[");
+        for (int i = 0; i <= buckets.length; i++) {
+          json.append(i == 0 ? "" : ",")
+              .append("{\"le\":").append(i < buckets.length ? Double.toString(buckets[i]) : "null")
+              .append(",\"count\":").append(phase.batchCounts[i]).append("}");
+        }
+        json.append("]}");
+      }
+      json.append("}");
+      separator = ",\n";
+    }
+    return json.append("\n]}\n").toString();
+  }
+
+  /**
+   * Writes the phases in the Prometheus text exposition format.
+   *
+   * @return the metrics.
+   */
+  public synchronized String toPrometheus() {
+    StringBuilder text = new StringBuilder();
+    text.append("# TYPE load_phase_seconds gauge\n");
+    for (Phase phase : phases.values()) {
+      text.append("load_phase_seconds").append(labels(phase, null))
+          .append(' ').append(seconds(phase.nanos)).append('\n');
+    }
+    text.append("# TYPE load_phase_rows gauge\n");
+    for (Phase phase : phases.values()) {
+      text.append("load_phase_rows").append(labels(phase, null))
+          .append(' ').append(phase.rows).append('\n');
+    }
+    text.append("# TYPE load_batch_seconds histogram\n");
+    for (Phase phase : phases.values()) {
+      if (phase.batches == 0) {
+        continue;
+      }
+      long cumulative = 0;
+      for (int i = 0; i <= buckets.length; i++) {
+        cumulative += phase.batchCounts[i];
+        String le = i < buckets.length ? Double.toString(buckets[i] / 1000) : "+Inf";
+        text.append("load_batch_seconds_bucket").append(labels(phase, le))
+            .append(' ').append(cumulative).append('\n');
+      }
+      text.append("load_batch_seconds_sum").append(labels(phase, null))
+          .append(' ').append(seconds(phase.batchNanos)).append('\n');
+      text.append("load_batch_seconds_count").append(labels(phase, null))
+          .append(' ').append(phase.batches).append('\n');
+    }
+    return text.toString();
+  }
+
+  /**
+   * Writes the JSON summary to a file.
+   *
+   * @param file String represents path of the file.
+   * @throws IOException
+   */
+  public void write(String file) throws IOException {
+    try (Writer out = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+      out.write(toJson());
+    }
+  }
+
+  /**
+   * Serves the metrics on the loopback interface, the Prometheus text at <code>/metrics</code>
+   * and the JSON summary at <code>/summary</code>.
+   *
+   * @param port int represents the port to listen on.
+   * @throws IOException
+   */
+  public void serve(int port) throws IOException {
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+    server.createContext("/metrics", exchange -> respond(exchange, "text/plain; version=0.0.4", toPrometheus()));
+    server.createContext("/summary", exchange -> respond(exchange, "application/json", toJson()));
+    server.start();
+  }
+
+  /**
+   * Stops serving the metrics.
+   */
+  public void stop() {
+    if (server != null) {
+      server.stop(0);
+      server = null;
+    }
+  }
+
+  private Phase phase(String object, String step) {
+    return phases.computeIfAbsent(object + "\u0000" + step, key -> new Phase(object, step));
+  }
+
+  /**
+   * Formats nanoseconds as seconds the same way whatever the default locale is.
+   */
+  private static String seconds(long nanos) {
+    return String.format(Locale.ROOT, "%.9f", nanos / 1e9);
+  }
+
+  private static String labels(Phase phase, String le) {
+    return "{object=\"" + escape(phase.object) + "\",step=\"" + escape(phase.step) + "\""
+        + (le == null ? "" : ",le=\"" + le + "\"") + "}";
+  }
+
+  private static String escape(String label) {
+    return label.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+  }
+
+  private static void respond(HttpExchange exchange, String type, String body) throws IOException {
+    byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", type);
+    exchange.sendResponseHeaders(200, bytes.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(bytes);
+    }
+  }
+
+  /**
+   * Totals of one step of one object.
+   */
+  private static class Phase {
+    final String object;
+    final String step;
+    final long[] batchCounts = new long[buckets.length + 1];
+    long nanos;
+    long rows;
+    long batches;
+    long batchNanos;
+    long maxBatchNanos;
+
+    Phase(String object, String step) {
+      this.object = object;
+      this.step = step;
+    }
+  }
+
+}
+
+/**
+ * <h1>Class to generate large synthetic TopURLs and mapping files.</h1>
+ *
+ * Tld pairs are drawn with the frequencies they have in a sample TopURLs file, so com dominates
+ * and a long tail of country codes follows, and every mapped tld keeps a small chance of appearing
+ * on its own. A share of the rows reuses the name of a more popular domain under another tld pair,
+ * the way brands register in many countries. The same seed always produces the same files.
+ *
+ * @author Hayder
+ * @version 1.0
+ */
+
+class RankingGenerator {
+
+  /**
+   * Share of rows that repeat an earlier domain name, as in the bundled TopURLs file.
+   */
+  public final static double repeatRate = 0.07;
+
+  private final static String[] syllables = {"ka", "lo", "mi", "ne", "ru", "ta", "vo", "zi",
+      "ba", "de", "fu", "go", "hi", "ja", "ku", "le", "ma", "no", "pe", "ri", "sa", "to", "un", "ve",
+      "wi", "xo", "ya", "ze", "an", "el", "in", "or"};
+
+  private final List<String> mapping = new ArrayList<String>();
+  private final List<String[]> pairs = new ArrayList<String[]>();
+  private double[] cumulative;
+  private final long seed;
+
+  /**
+   * Constructor reads the tld pair frequencies from sample files.
+   *
+   * @param topUrls String represents path of the sample TopURLs file.
+   * @param mappingFile String represents path of the mapping file, whose tlds are the only ones generated.
+   * @param seed long to generate from.
+   * @throws IOException
+   */
+  public RankingGenerator(String topUrls, String mappingFile, long seed) throws IOException {
+    this.seed = seed;
+    Map<String, Double> weights = new LinkedHashMap<String, Double>();
+
+    try (BufferedReader reader = new BufferedReader(new FileReader(mappingFile))) {
+      String line = reader.readLine();
+      while (line != null) {
+        String tld = line.split("\t")[0];
+        if (!weights.containsKey(tld + "\t")) {
+          mapping.add(line);
+          weights.put(tld + "\t", 0.1);
+        }
+        line = reader.readLine();
+      }
+    }
+
+    try (BufferedReader reader = new BufferedReader(new FileReader(topUrls))) {
+      String line = reader.readLine();
+      while (line != null) {
+        String[] values = line.split("\t");
+        String tld2 = values.length == 4 ? values[3] : "";
+        String pair = values[2] + "\t" + tld2;
+        if (weights.containsKey((tld2.isEmpty() ? values[2] : tld2) + "\t")) {
+          weights.merge(pair, 1.0, Double::sum);
+        }
+        line = reader.readLine();
+      }
+    }
+
+    cumulative = new double[weights.size()];
+    double total = 0;
+    for (Map.Entry<String, Double> weight : weights.entrySet()) {
+      total += weight.getValue();
+      cumulative[pairs.size()] = total;
+      pairs.add(weight.getKey().split("\t", -1));
+    }
+  }
+
+  /**
+   * Writes a TopURLs file with the given number of rows and the mapping file to a directory.
+   *
+   * @param directory String represents path of the directory, which is created if needed.
+   * @param rows long represents number of rows to generate.
+   * @throws IOException
+   */
+  public void write(String directory, long rows) throws IOException {
+    long start = System.nanoTime();
+    new File(directory).mkdirs();
+
+    try (Writer out = new BufferedWriter(new OutputStreamWriter(
+        new FileOutputStream(new File(directory, "mapping")), StandardCharsets.UTF_8))) {
+      for (String line : mapping) {
+        out.write(line);
+        out.write('\n');
+      }
+    }
+
+    SplittableRandom random = new SplittableRandom(seed);
+    LongIntMap repeated = new LongIntMap((int) Math.min(rows * repeatRate + 16, 1 << 28));
+    long domains = 0;
+    StringBuilder line = new StringBuilder();
+
+    try (Writer out = new BufferedWriter(new OutputStreamWriter(
+        new FileOutputStream(new File(directory, "TopURLs")), StandardCharsets.UTF_8), 1 << 20)) {
+      for (long position = 1; position <= rows; position++) {
+        long domain = -1;
+        int pair = 0;
+
+        if (domains > 0 && random.nextDouble() < repeatRate) {
+          // popular domains are the most likely to be registered again under another tld
+          for (int attempt = 0; attempt < 8 && domain < 0; attempt++) {
+            long brand = (long) (domains * Math.pow(random.nextDouble(), 3));
+            pair = pair(random.nextDouble());
+            long key = brand * pairs.size() + pair;
+            if (pair != pair(brand) && repeated.get(key) < 0) {
+              repeated.put(key, 0);
+              domain = brand;
+            }
+          }
+        }
+        if (domain < 0) {
+          domain = domains++;
+          pair = pair(domain);
+        }
+
+        String[] tld = pairs.get(pair);
+        line.setLength(0);
+        line.append(position).append('\t');
+        name(domain, line);
+        line.append('\t').append(tld[0]);
+        if (!tld[1].isEmpty()) {
+          line.append('\t').append(tld[1]);
+        }
+        line.append('\n');
+        out.append(line);
+      }
+    }
+
+    System.out.printf("Generated %d rows with %d distinct domains in %s in %.3f s%n",
+        rows, domains, directory, (System.nanoTime() - start) / 1e9);
+  }
+
+  /**
+   * Reads a number of rows such as <code>100000</code>, <code>1M</code> or <code>100M</code>.
+   *
+   * @param size String represents the number, optionally followed by K, M or G.
+   * @return the number of rows.
+   */
+  public static long parseSize(String size) {
+    String number = size.trim().toUpperCase();
+    long unit = 1;
+    if (number.endsWith("K")) {
+      unit = 1000L;
+    } else if (number.endsWith("M")) {
+      unit = 1000000L;
+    } else if (number.endsWith("G")) {
+      unit = 1000000000L;
+    }
+    if (unit > 1) {
+      number = number.substring(0, number.length() - 1);
+    }
+    return Long.parseLong(number) * unit;
+  }
+
+  /**
+   * Picks the tld pair a new domain is first registered under, fixed by the domain so a repeat
+   * can avoid it without the pair being stored.
+   */
+  private int pair(long domain) {
+    long z = (seed ^ domain) * 0x9E3779B97F4A7C15L;
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    return pair(((z ^ (z >>> 31)) >>> 11) * 0x1.0p-53);
+  }
+
+  private int pair(double uniform) {
+    int i = Arrays.binarySearch(cumulative, uniform * cumulative[cumulative.length - 1]);
+    return Math.min(i < 0 ? -i - 1 : i, cumulative.length - 1);
+  }
+
+  /**
+   * Spells a distinct name for every domain number out of two letter syllables. The number is
+   * scrambled within its power of two, so names stay unique and popular domains get short ones.
+   */
+  private static void name(long domain, StringBuilder out) {
+    long block = Long.highestOneBit(domain + 32);
+    long n = block | (((domain + 32 - block) * 0x9E3779B97F4A7C15L) & (block - 1));
+    do {
+      out.append(syllables[(int) (n & 31)]);
+      n >>>= 5;
+    } while (n > 0);
+  }
+
+}
+
+/**
+ * Conntains main method and is where program is launched from.
+ *
+ * @author Hayder
+ * @version 1.0
+ */
+
+public class Database {
+
+  public static ConnectionPool pool;
+
+  /**
+   * Cache of query results, sized with the system properties <code>cache.size</code> (entries,
+   * default 64) and <code>cache.age</code> (seconds, default 300).
+   */
+  public static QueryCache cache = new QueryCache(Integer.getInteger("cache.size", 64),
+      Long.getLong("cache.age", 300));
+
+  /**
+   * Timings of the load phases, written as JSON to the file named by the system property
+   * <code>metrics</code> after a load and served on <code>metrics.port</code> while it runs.
+   */
+  public static LoadMetrics metrics = new LoadMetrics();
+
+  /**
+   * Establishes a connection to database.
+   *
+   * @param user String represents username for database.
+   * @param password String represents the password for user.
+   * @param database String represents the name of database (including the username).
+   * @return a {@link Connection} if database connection successful, otherwise return null.
+   */
+  public static Connection connectToDatabase(String user, String password, String database) {
+  Connection connection = null;
+    try {
+      connection=DriverManager.getConnection(database, user, password);
+  } catch (SQLException e) {
+    System.out.println("Connection Failed! Check output console");
+    e.printStackTrace();
+  }
+    return connection;
+  }
+
+  /**
+   * Checks which loader moves file data into the tables. Selected with the system property
+   * <code>loader</code>, either <code>batch</code> (default) or <code>copy</code>.
+   *
+   * @return true if the COPY protocol loader is selected, otherwise return false.
+   */
+  public static boolean isCopyLoader() {
+    return System.getProperty("loader", "batch").equals("copy");
+  }
+
+  /**
+   * Checks which parser reads the TopURLs file. Selected with the system property
+   * <code>parser</code>, either <code>scanner</code> (default) or <code>mapped</code>.
+   *
+   * @return true if the memory mapped parallel parser is selected, otherwise return false.
+   */
+  public static boolean isMappedParser() {
+    return System.getProperty("parser", "scanner").equals("mapped");
+  }
+
+  /**
+   * Checks if the TopURLs and mapping files are read through an {@link IngestPipeline}, with the
+   * system property <code>parser</code> set to <code>pipelined</code>. Compressed files are always
+   * read this way.
+   *
+   * @return true if the pipelined reader is selected, otherwise return false.
+   */
+  public static boolean isPipelinedParser() {
+    return System.getProperty("parser", "scanner").equals("pipelined");
+  }
+
+  /**
+   * Checks how the tld, domain and url tables are filled. Selected with the system property
+   * <code>ingest</code>, either <code>temp</code> (default) which goes through url_temp or
+   * <code>dictionary</code> which encodes the ranking in memory and writes the tables directly.
+   *
+   * @return true if the tables are filled from a {@link RankingDictionary}, otherwise return false.
+   */
+  public static boolean isDictionaryIngest() {
+    return System.getProperty("ingest", "temp").equals("dictionary");
+  }
+
+  /**
+   * Checks whether url is filled by the server from url_temp with the
+   * <code>ingest</code> system property set to <code>server</code>, in which case the whole
+   * url_temp to tld, domain and url transform runs as set based SQL in one transaction.
+   *
+   * @return true if the server side transform is selected, otherwise return false.
+   */
+  public static boolean isServerIngest() {
+    return System.getProperty("ingest", "temp").equals("server");
+  }
+
+  /**
+   * Checks how url refers to domains. Selected with the system property <code>keys</code>, either
+   * <code>natural</code> (default) which keys url on domain_name or <code>surrogate</code> which
+   * gives every domain an integer domain_id that url stores instead.
+   *
+   * @return true if surrogate domain keys are selected, otherwise return false.
+   */
+  public static boolean isSurrogateKeys() {
+    return System.getProperty("keys", "natural").equals("surrogate");
+  }
+
+  /**
+   * Reads the path of a public suffix list from the system property <code>suffixes</code>. When
+   * set, each hostname's suffix is resolved with a {@link SuffixTrie} as the TopURLs file is
+   * parsed and the tld table stores the description of every suffix.
+   *
+   * @return the path of the public suffix list, or null to take the suffixes as the file splits them.
+   */
+  public static String suffixList() {
+    return System.getProperty("suffixes");
+  }
+
+  /**
+   * Checks if suffixes are resolved with a {@link SuffixTrie}, see {@link #suffixList()}.
+   *
+   * @return true if a public suffix list is given, otherwise return false.
+   */
+  public static boolean isSuffixTrie() {
+    return suffixList() != null;
+  }
+
+  /**
+   * Checks if a load is skipped when its input files are unchanged. Selected with the system
+   * property <code>fingerprint</code>, either <code>true</code> (default) or <code>false</code>
+   * which always loads.
+   *
+   * @return true if unchanged inputs skip the load, otherwise return false.
+   */
+  public static boolean isFingerprinted() {
+    return !System.getProperty("fingerprint", "true").equals("false");
+  }
+
+  /**
+   * Checks how an existing load is refreshed. Selected with the system property
+   * <code>reload</code>, either <code>full</code> (default) which drops and recreates every table
+   * or <code>incremental</code> which applies only the rows that changed.
+   *
+   * @return true if incremental reloads are selected, otherwise return false.
+   */
+  public static boolean isIncrementalReload() {
+    return System.getProperty("reload", "full").equals("incremental");
+  }
+
+  /**
+   * Checks if table constraints are added after the data is loaded instead of when the table is
+   * created. Selected with the system property <code>constraints</code>, either
+   * <code>immediate</code> (default) or <code>deferred</code>.
+   *
+   * @return true if constraints are deferred, otherwise return false.
+   */
+  public static boolean isDeferredConstraints() {
+    return System.getProperty("constraints", "immediate").equals("deferred");
+  }
+
+  /**
+   * Checks if tables are created UNLOGGED, which skips the write-ahead log but loses their
+   * contents after a crash. Selected with the system property <code>tables</code> set to
+   * <code>unlogged</code>. A partitioned url cannot be, so only its partitions are.
+   *
+   * @see Url#tableDefinition()
+   *
+   * @return true if tables are unlogged, otherwise return false.
+   */
+  public static boolean isUnloggedTables() {
+    return System.getProperty("tables", "logged").equals("unlogged");
+  }
+
+  /**
+   * Checks if the tables are loaded in a shadow schema and swapped in when complete. Selected
+   * with the system property <code>reload</code> set to <code>shadow</code>, the schema is named
+   * by <code>reload.schema</code> (default <code>shadow</code>).
+   *
+   * @return true if shadow reload is selected, otherwise return false.
+   */
+  public static boolean isShadowReload() {
+    return System.getProperty("reload", "full").equals("shadow");
+  }
+
+  /**
+   * Checks how the report views are stored. Selected with the system property
+   * <code>views</code>, either <code>plain</code> (default) or <code>materialized</code>, which
+   * stores the results and refreshes them concurrently after incremental reloads.
+   *
+   * @return true if materialized views are selected, otherwise return false.
+   */
+  public static boolean isMaterializedViews() {
+    return System.getProperty("views", "plain").equals("materialized");
+  }
+
+  /**
+   * Reads how many positions each partition of url holds from the system property
+   * <code>partition</code>. The default, 0, leaves url unpartitioned.
+   *
+   * @return the number of positions per partition, or 0.
+   * @throws IllegalArgumentException if the size is negative.
+   */
+  public static long partitionSize() {
+    long size = Long.getLong("partition", 0);
+    if (size < 0) {
+      throw new IllegalArgumentException("Invalid partition size " + size);
+    }
+    return size;
+  }
+
+  /**
+   * Checks if url is range partitioned on position.
+   *
+   * @return true if a partition size is set, otherwise return false.
+   *
+   * @see #partitionSize()
+   */
+  public static boolean isPartitioned() {
+    return partitionSize() > 0;
+  }
+
+  /**
+   * Checks where the report queries are answered. Selected with the system property
+   * <code>engine</code>, either <code>database</code> (default) or <code>memory</code>, which
+   * computes them from the input files without connecting to a database.
+   *
+   * @return true if the in-memory engine is selected, otherwise return false.
+   */
+  public static boolean isMemoryEngine() {
+    return System.getProperty("engine", "database").equals("memory");
+  }
+
+  /**
+   * Checks if the report queries are answered from a ranking file, with the system property
+   * <code>engine</code> set to <code>file</code>. The file is memory mapped, so nothing is parsed
+   * and no database is needed.
+   *
+   * @return true if the ranking file engine is selected, otherwise return false.
+   *
+   * @see #rankingFile()
+   */
+  public static boolean isFileEngine() {
+    return System.getProperty("engine", "database").equals("file");
+  }
+
+  /**
+   * Reads the path of the ranking file from the system property <code>ranking.file</code>,
+   * defaulting to <code>ranking.bin</code>.
+   *
+   * @return the path of the ranking file.
+   *
+   * @see RankingFile
+   */
+  public static String rankingFile() {
+    return System.getProperty("ranking.file", "ranking.bin");
+  }
+
+  /**
+   * Prints how many rows were loaded into a table and the throughput achieved, and records them
+   * in {@link #metrics}.
+   *
+   * @param table String represents name of the table loaded.
+   * @param rows long represents number of rows loaded.
+   * @param start long represents the {@link System#nanoTime()} the load started at.
+   */
+  public static void reportLoad(String table, long rows, long start) {
+    metrics.record(table, "load", rows, start);
+    double seconds = (System.nanoTime() - start) / 1e9;
+    System.out.printf("Loaded %d rows into %s in %.3f s (%.0f rows/sec)%n",
+        rows, table, seconds, seconds > 0 ? rows / seconds : 0);
+  }
+
+  /**
+   * Shows the resultset of a query.
+   *
+   * @param connection Connection to run the query on.
+   * @param query String represents the statement to query.
+   * @return the resultset of the query.
+   * @throws SQLException
+   */
+  public static ResultSet executeSelect (Connection connection, String query) throws SQLException {
+    Statement st = null;
+    st = connection.createStatement();
+    ResultSet rs = null;
+    rs = st.executeQuery(query);
+  return rs;
+  }
+
+  /**
+   * Loads database by initialising all tables and views as well printing out the queries.
+   * Tables and views that do not depend on each other are loaded at the same time on separate
+   * pooled connections, and the queries are run at the same time by a {@link ReportRunner}.
+   * The load is skipped when the tables were already built from the same input files.
+   *
+   * @throws SQLException
+   *
+   * @see LoadFingerprint
+   */
+  public static void loadDatabase() throws SQLException {
+    // a bad partition size has to stop the load before any table is dropped
+    isPartitioned();
+    LoadFingerprint fingerprint = null;
+    if (isFingerprinted()) {
+      long start = System.nanoTime();
+      String filepath = new File("").getAbsolutePath();
+      try {
+        fingerprint = isSuffixTrie()
+            ? new LoadFingerprint(filepath + "/TopURLs", filepath + "/mapping", suffixList())
+            : new LoadFingerprint(filepath + "/TopURLs", filepath + "/mapping");
+      } catch (IOException e) {
+        // the load reports the unreadable file itself
+      }
+      if (fingerprint != null) {
+        Connection connection = pool.acquire();
+        try {
+          if (fingerprint.matches(connection)) {
+            System.out.printf("Inputs unchanged since the last load, checked in %.3f s%n",
+                (System.nanoTime() - start) / 1e9);
+            printReports();
+            return;
+          }
+          LoadFingerprint.clear(connection);
+        } finally {
+          pool.release(connection);
+        }
+      }
+    }
+
+    if (!loadTables()) {
+      return;
+    }
+
+    if (fingerprint != null) {
+      Connection connection = pool.acquire();
+      try {
+        fingerprint.record(connection);
+      } finally {
+        pool.release(connection);
+      }
+    }
+    printReports();
+  }
+
+  /**
+   * Drops and reloads, or incrementally updates, the tables and views.
+   *
+   * @return true if the tables were loaded, false if the input could not be read.
+   * @throws SQLException
+   */
+  public static boolean loadTables() throws SQLException {
+    ShadowReload shadow = null;
+    if (isShadowReload()) {
+      shadow = new ShadowReload(System.getProperty("reload.schema", "shadow"));
+      Connection connection = pool.acquire();
+      try {
+        shadow.prepare(connection);
+      } finally {
+        pool.release(connection);
+      }
+    }
+    LoadScheduler scheduler = new LoadScheduler(pool, shadow == null ? null : shadow.schema);
+
+    boolean delta = false;
+    boolean viewsExist = false;
+    if (isIncrementalReload()) {
+      String[] type = {isMaterializedViews() ? "MATERIALIZED VIEW" : "VIEW"};
+      Connection connection = pool.acquire();
+      try {
+        delta = DeltaReload.applicable(connection);
+        viewsExist = exists(connection, UrlView.name, type)
+            && exists(connection, TldView.name, type)
+            && exists(connection, DomainView.name, type);
+      } finally {
+        pool.release(connection);
+      }
+    }
+
+    if (delta) {
+      AtomicInteger changed = new AtomicInteger();
+      scheduler.add("url", "ranking", connection -> changed.set(new DeltaReload(connection).apply()));
+      if (!viewsExist) {
+        scheduler.add("views", null, Database::dropViews, "url");
+        scheduleViews(scheduler, "views", "views");
+      } else if (isMaterializedViews()) {
+        // materialized results only go stale when the delta changed something
+        for (String view : new String[]{UrlView.name, TldView.name, DomainView.name}) {
+          scheduler.add(view, null, connection -> {
+            if (changed.get() > 0) {
+              MaterializedView.refresh(connection, view);
+            }
+          }, "url");
+        }
+      }
+    } else {
+      if (!scheduleTables(scheduler)) {
+        scheduler.cancel();
+        if (shadow != null) {
+          discard(shadow);
+        }
+        return false;
+      }
+      scheduleViews(scheduler, "url", "mapping");
+    }
+
+    if (shadow == null) {
+      scheduler.run();
+    } else {
+      boolean swapped = false;
+      try {
+        scheduler.run();
+        Connection connection = pool.acquire();
+        try {
+          shadow.swap(connection);
+          swapped = true;
+        } finally {
+          pool.release(connection);
+        }
+      } finally {
+        // after a failure the live tables are untouched, only the partial load goes
+        if (!swapped) {
+          discard(shadow);
+        }
+      }
+    }
+
+    return true;
+  }
+
+  private static void discard(ShadowReload shadow) throws SQLException {
+    Connection connection = pool.acquire();
+    try {
+      shadow.discard(connection);
+    } finally {
+      pool.release(connection);
+    }
+  }
+
+  /**
+   * Prints the queries, then writes the export, ranking file and metrics asked for.
+   *
+   * @throws SQLException
+   */
+  public static void printReports() throws SQLException {
+    new ReportRunner(pool).print(queries());
+
+    if (System.getProperty("export") != null || System.getProperty("ranking.file") != null) {
+      Connection connection = pool.acquire();
+      try {
+        if (System.getProperty("export") != null) {
+          exportRanking(connection, System.getProperty("export"));
+        }
+        if (System.getProperty("ranking.file") != null) {
+          RankingFile.export(connection, rankingFile());
+        }
+      } catch (IOException e) {
+        e.printStackTrace();
+        System.out.println("Error writing ranking file");
+      } finally {
+        pool.release(connection);
+      }
+    }
+
+    if (System.getProperty("metrics") != null) {
+      try {
+        metrics.write(System.getProperty("metrics"));
+      } catch (IOException e) {
+        e.printStackTrace();
+        System.out.println("Error writing metrics");
+      }
+    }
+  }
+
+  /**
+   * Loads every dated snapshot file in a directory that is not loaded yet into ranking_snapshot,
+   * several files at a time on separate pooled connections, then prints the history reports
+   * asked for with the system properties <code>history.domain</code> (a domain name) and
+   * <code>history.movers</code> (two dates, e.g. <code>2024-01-01,2024-02-01</code>). Nothing is
+   * loaded when <code>history.movers</code> does not hold two valid dates.
+   *
+   * @param directory String represents path of the directory holding the snapshot files.
+   * @throws SQLException
+   *
+   * @see SnapshotHistory
+   */
+  public static void loadSnapshots(String directory) throws SQLException {
+    LocalDate[] movers = null;
+    if (System.getProperty("history.movers") != null) {
+      movers = SnapshotHistory.dates(System.getProperty("history.movers"));
+      if (movers == null) {
+        System.out.println("Please give history.movers as two dates, e.g. -Dhistory.movers=2024-01-31,2024-02-29");
+        return;
+      }
+    }
+
+    LoadScheduler scheduler = new LoadScheduler(pool);
+    Connection connection = pool.acquire();
+    try {
+      SnapshotHistory.create(connection);
+      for (Map.Entry<LocalDate, File> file : SnapshotHistory.files(directory).entrySet()) {
+        if (!exists(connection, SnapshotHistory.partitionName(file.getKey()), null)) {
+          scheduler.add(file.getKey().toString(), null,
+              c -> SnapshotHistory.load(c, file.getKey(), file.getValue()));
+        }
+      }
+    } finally {
+      pool.release(connection);
+    }
+    scheduler.run();
+
+    connection = pool.acquire();
+    try (RankingQueries queries = new RankingQueries(connection)) {
+      String domain = System.getProperty("history.domain");
+      if (domain != null) {
+        new Query("Best position of " + domain + " by snapshot", RankingQueries.bestPositions,
+            "%-12.12s %-13.13s%n").print(queries.bestPositions(domain));
+      }
+      if (movers != null) {
+        new Query("10 biggest movers from " + movers[0] + " to " + movers[1],
+            RankingQueries.biggestMovers, "%-15.50s %-7.15s %-7.15s %-14.14s %-12.12s %-7.7s%n")
+            .print(queries.biggestMovers(movers[0], movers[1], 10));
+      }
+    } finally {
+      pool.release(connection);
+    }
+  }
 
   /**
-   * Constructor calls parent constructor to set up table.
+   * Streams the full ranking to standard output, or to the file named by the system property
+   * <code>export.file</code>.
    *
+   * @param connection Connection to run the export on.
+   * @param format String represents the format, <code>csv</code>, <code>json</code> or <code>fixed</code>.
    * @throws SQLException
-   *
-   * @see Table#Table(String, String, boolean)
    */
-
-  public Url() throws SQLException {
-    super(name, definition, isTemp);
-    insertData();
+  public static void exportRanking(Connection connection, String format) throws SQLException {
+    Query ranking = new Query(
+        "Full ranking",
+        "SELECT position, domain_name, tld1, tld2 FROM url NATURAL JOIN "
+            + (isSurrogateKeys() ? "domain NATURAL JOIN " : "") + "tld ORDER BY position;",
+        "%-10.10s %-50.50s %-15.15s %-15.15s%n");
+
+    long start = System.nanoTime();
+    String file = System.getProperty("export.file");
+    try {
+      long rows;
+      if (file != null) {
+        try (Writer out = new BufferedWriter(
+            new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8), 1 << 16)) {
+          rows = ranking.stream(connection, ResultFormatter.create(format, out, ranking.formatting()));
+        }
+      } else {
+        // System.out is only flushed, closing it would silently drop everything printed after
+        Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16);
+        try {
+          rows = ranking.stream(connection, ResultFormatter.create(format, out, ranking.formatting()));
+        } finally {
+          out.flush();
+        }
+      }
+      System.err.printf("Exported %d rows in %.3f s%n", rows, (System.nanoTime() - start) / 1e9);
+    } catch (IOException e) {
+      e.printStackTrace();
+      System.out.println("Error writing export");
+    }
   }
 
   /**
-   * Inserts data from url_temp into table.
+   * Reads how many rows a cursor fetches at a time from the system property
+   * <code>fetch.size</code>, defaulting to 1000.
    *
-   * @throws SQLException
+   * @return the fetch size.
    */
-
-  @Override
-  public void insertData() throws SQLException {
-    PreparedStatement preparedStatement;
-	  preparedStatement = Database.connection.prepareStatement(insertQuery);
-	  ResultSet rs = Database.executeSelect("SELECT pos, domain_name, tld_id "
-		  		+ "FROM url_temp "
-		  		+ "NATURAL JOIN tld "
-		  		+ "WHERE url_temp.tld1 = tld.tld1 AND url_temp.tld2 = tld.tld2 "
-		  		+ "ORDER BY pos;");
-
-	  try {
-	    while (rs.next()) {
-		  preparedStatement.setInt(1, rs.getInt(1));
-		  preparedStatement.setString(2, rs.getString(2));
-		  preparedStatement.setInt(3, rs.getInt(3));
-		  preparedStatement.addBatch();
-	    }
-	  } catch (SQLException e) {
-	    e.printStackTrace();
-	  }
-	  rs.close();
-
-	  preparedStatement.executeBatch();
-	  preparedStatement.close();
+  public static int fetchSize() {
+    return Integer.getInteger("fetch.size", 1000);
   }
 
-}
-
-/**
- * Class to represent the url view in database. Implements {@link View} abstract class.
- *
- * @author Hayder
- * @version 1.0
- *
- * @see View
- */
-
-class UrlView extends View {
-
-  public final static String name = "top_10_urls";
-  public final static String definition = "SELECT position, domain_name, tld1, tld2\n" +
-			"  FROM url\n" +
-			"  NATURAL JOIN tld\n" +
-			"  ORDER BY position\n" +
-			"  LIMIT 10;";
-
   /**
-   * Constructor calls parent constructor to set up view.
+   * Defines the report queries, each with an in-memory equivalent.
    *
+   * @return the queries in the order they are printed.
    * @throws SQLException
-   *
-   * @see View#View(String, String)
    */
+  public static Query[] queries() throws SQLException {
+    Query queryOne = new Query(
+        "Query 1: 10 most popular URLs in descending order of popularity",
+        "SELECT * FROM top_10_urls ORDER BY position;",
+        "%-10.10s %-15.50s %-7.15s %-7.15s%n")
+        .inMemory(new String[]{"position", "domain_name", "tld1", "tld2"},
+            reports -> reports.topUrls(10));
 
-  public UrlView() throws SQLException {
-    super(name, definition);
-  }
-
-}
+    Query queryTwo = new Query(
+        "Query 2: 10 distinct most popular top level domains in descending order of popularity",
+        "SELECT tld1, tld2 FROM top_10_tlds ORDER BY best_position;",
+        "%-7.15s %-7.15s%n")
+        .inMemory(new String[]{"tld1", "tld2"},
+            reports -> RankingReports.columns(reports.topTlds(10), 1, 2));
 
-/**
- * Class to represent the url view in database. Implements {@link View} abstract class.
- *
- * @author Hayder
- * @version 1.0
- *
- * @see View
- */
+    Query queryThree = new Query(
+        "Query 3: 10 distinct most popular descriptions of the rightmost part of tld in descending order of popularity",
+        "SELECT description FROM top_10_tlds ORDER BY best_position;",
+        "%-50.200s%n")
+        .inMemory(new String[]{"description"},
+            reports -> RankingReports.columns(reports.topTlds(10), 3));
 
-class TldView extends View {
+    Query queryFour = new Query(
+        "Query 4: top 10 distinct domain names that appear more than once, ordered by popularity",
+        "SELECT domain_name FROM top_10_repeated_domains ORDER BY best_position;",
+        "%-15.50s%n")
+        .inMemory(new String[]{"domain_name"},
+            reports -> RankingReports.columns(reports.topRepeatedDomains(10), 1));
 
-  public final static String name = "top_10_tlds";
-  public final static String definition = "SELECT min(position) AS best_position, tld1, tld2, description\n" +
-			"    FROM url\n" +
-			"    NATURAL JOIN tld, mapping\n" +
-			"    WHERE\n" +
-			"    (\n" +
-			"      CASE\n" +
-			"        WHEN tld.tld2 = '' THEN tld.tld1\n" +
-			"        ELSE tld.tld2\n" +
-			"      END\n" +
-			"    )  = mapping.tld\n" +
-			"    GROUP BY tld1, tld2, description\n" +
-			"    ORDER BY best_position\n" +
-			"    LIMIT 10;";
+    return new Query[]{queryOne, queryTwo, queryThree, queryFour};
+  }
 
   /**
-   * Constructor calls parent constructor to set up view.
+   * Prints the report queries computed in memory from the TopURLs and mapping files in the
+   * working directory, without a database.
    *
    * @throws SQLException
-   *
-   * @see View#View(String, String)
    */
+  public static void reportInMemory() throws SQLException {
+    long start = System.nanoTime();
+    String filepath = new File("").getAbsolutePath();
+    RankingReports reports;
+    try {
+      reports = RankingReports.load(filepath + "/TopURLs", filepath + "/mapping");
+    } catch (IOException e) {
+      e.printStackTrace();
+      System.out.println("Error reading file");
+      return;
+    }
+    System.out.printf("Parsed ranking in memory in %.3f s%n", (System.nanoTime() - start) / 1e9);
 
-  public TldView() throws SQLException {
-    super(name, definition);
+    for (Query query : queries()) {
+      query.print(reports);
+    }
   }
 
-}
-
-/**
- * Class to represent the url view in database. Implements {@link View} abstract class.
- *
- * @author Hayder
- * @version 1.0
- *
- * @see View
- */
-
-class DomainView extends View {
-
-  public final static String name = "top_10_repeated_domains";
-  public final static String definition = "SELECT min(position) AS best_position, domain_name\n" +
-			"  FROM url\n" +
-			"  GROUP BY domain_name\n" +
-			"  HAVING count(*) > 1\n" +
-			"  ORDER BY best_position\n" +
-			"  LIMIT 10;";
-
   /**
-   * Constructor calls parent constructor to set up view.
+   * Prints the report queries computed from the ranking file written by an earlier load,
+   * without parsing the input files or a database.
    *
    * @throws SQLException
    *
-   * @see View#View(String, String)
+   * @see #rankingFile()
    */
+  public static void reportFromFile() throws SQLException {
+    long start = System.nanoTime();
+    RankingReports reports;
+    try {
+      reports = RankingReports.open(rankingFile());
+    } catch (IOException e) {
+      e.printStackTrace();
+      System.out.println("Error reading ranking file");
+      return;
+    }
+    System.out.printf("Mapped ranking file in %.3f s%n", (System.nanoTime() - start) / 1e9);
 
-  public DomainView() throws SQLException {
-    super(name, definition);
+    for (Query query : queries()) {
+      query.print(reports);
+    }
   }
 
-}
-
-/**
- * <h1>Class to represent a query in the database.</h1>
- *
- * @author Hayder
- * @version 1.0
- */
+  /**
+   * Adds the steps that drop and recreate the tables, filling them as selected by the
+   * <code>ingest</code> system property.
+   *
+   * @param scheduler LoadScheduler to add the steps to.
+   * @return true if the steps were added, false if the input could not be read.
+   */
+  public static boolean scheduleTables(LoadScheduler scheduler) {
+    // views are dropped up front so concurrent CASCADE drops of their tables never race on them
+    scheduler.add("views", null, Database::dropViews);
 
-class Query {
+    scheduler.add("mapping", "mapping", Mapping::new, "views");
 
-  private String title;
-  private String query;
-  private String formatting;
+    if (isDictionaryIngest()) {
+      RankingDictionary ranking = parseRanking();
+      if (ranking == null) {
+        return false;
+      }
+      scheduler.add("tld", null, connection -> new Tld(connection, ranking), "mapping");
+      scheduler.add("domain", null, connection -> new Domain(connection, ranking), "views");
+      scheduler.add("url", null, connection -> new Url(connection, ranking), "tld", "domain");
+    } else if (isServerIngest()) {
+      scheduler.add("url_temp", "ranking", UrlTemp::new, "views");
+      scheduler.add("url", "ranking", Database::transform, "url_temp", "mapping");
+    } else {
+      // url_temp is a TEMP table, so every step reading it must share its session
+      scheduler.add("url_temp", "ranking", UrlTemp::new, "views");
+      scheduler.add("tld", "ranking", Tld::new, "url_temp", "mapping");
+      scheduler.add("domain", "ranking", Domain::new, "url_temp");
+      scheduler.add("url", "ranking", Url::new, "tld", "domain");
+    }
+    return true;
+  }
 
   /**
-   * Constructor initialises the instance fields of this class.
+   * Adds the steps that create the views.
    *
-   * @param title String represents the title to be displayed for this query.
-   * @param query String represents the actual statment to query.
-   * @param formatting String represents how the query results should be formatted.
-   * @throws SQLException
+   * @param scheduler LoadScheduler to add the steps to.
+   * @param url String represents the step that loads the url table.
+   * @param mapping String represents the step that loads the mapping table.
    */
+  public static void scheduleViews(LoadScheduler scheduler, String url, String mapping) {
+    if (isMaterializedViews()) {
+      scheduler.add(UrlView.name, null, MaterializedUrlView::new, url);
+      scheduler.add(TldView.name, null, MaterializedTldView::new, url, mapping);
+      scheduler.add(DomainView.name, null, MaterializedDomainView::new, url);
+    } else {
+      scheduler.add(UrlView.name, null, UrlView::new, url);
+      scheduler.add(TldView.name, null, TldView::new, url, mapping);
+      scheduler.add(DomainView.name, null, DomainView::new, url);
+    }
+  }
 
-  public Query(String title, String query, String formatting) throws SQLException {
-    this.title = title;
-    this.query = query;
-    this.formatting = formatting;
+  /**
+   * Generates synthetic input files with the number of rows in the system property
+   * <code>generate</code>, e.g. <code>1M</code>, <code>10M</code> or <code>100M</code>. They are
+   * written to <code>generate.dir</code> (default <code>generated</code>) from the seed in
+   * <code>generate.seed</code> (default 1), using the TopURLs and mapping files in the working
+   * directory as the sample.
+   */
+  public static void generate() {
+    String filepath = new File("").getAbsolutePath();
+    try {
+      RankingGenerator generator = new RankingGenerator(filepath + "/TopURLs", filepath + "/mapping",
+          Long.getLong("generate.seed", 1));
+      generator.write(System.getProperty("generate.dir", "generated"),
+          RankingGenerator.parseSize(System.getProperty("generate")));
+    } catch (IOException e) {
+      e.printStackTrace();
+      System.out.println("Error generating files");
+    }
   }
 
   /**
-   * Iterates through resultset of query and prints the formatted results to console.
+   * Checks if a table or view exists in the current schema of a connection, or as one of its
+   * temporary tables.
    *
+   * @param connection Connection to check on.
+   * @param name String represents name of the table or view.
+   * @param types String array of table types to look for, or null for any type.
+   * @return true if it exists, otherwise return false.
    * @throws SQLException
    */
-  public void print() throws SQLException {
-    ResultSet rs = Database.executeSelect(this.query);
-    ResultSetMetaData rsmd = rs.getMetaData();
-
-    int columns = rsmd.getColumnCount();
-    String[] format = this.formatting.split(" ");
-
-    System.out.println("\n##" + this.title + "##\n");
-
-    for (int i = 0; i < columns; i++) {
-      System.out.printf(format[i], rsmd.getColumnName(i + 1).toUpperCase());
-    }
-
-    try {
-      while (rs.next()) {
-        for (int i = 1; i <= columns; i++) {
-          if (rs.getObject(i) instanceof Integer) {
-            System.out.printf(format[i-1], rs.getInt(i));
-          } else {
-            System.out.printf(format[i-1], rs.getString(i));
-          }
+  public static boolean exists(Connection connection, String name, String[] types) throws SQLException {
+    boolean exists = false;
+    String schema = connection.getSchema();
+    ResultSet rs = connection.getMetaData().getTables(null, null, name, types);
+    while (rs.next()) {
+        String table = rs.getString("TABLE_NAME");
+        String type = rs.getString("TABLE_TYPE");
+        // temporary tables live in a schema of their own, anything else must be in the current one
+        if (table != null && table.equals(name)
+            && (rs.getString("TABLE_SCHEM").equals(schema) || (type != null && type.startsWith("TEMPORARY")
+                && rs.getString("TABLE_SCHEM").equals(temporarySchema(connection))))) {
+          exists = true;
+          break;
         }
-      }
-    } catch (SQLException e) {
-      e.printStackTrace();
     }
     rs.close();
-    System.out.println("\n");
+    return exists;
   }
 
-}
-
-/**
- * Conntains main method and is where program is launched from.
- *
- * @author Hayder
- * @version 1.0
- */
-
-public class Database {
-
-  public static Connection connection;
+  /**
+   * Gets the schema holding the temporary tables of a connection. Every pooled connection has
+   * its own, and the temporary tables of the others are listed too but cannot be used.
+   *
+   * @param connection Connection to look on.
+   * @return the schema name, or null if the connection has no temporary tables yet.
+   * @throws SQLException
+   */
+  private static String temporarySchema(Connection connection) throws SQLException {
+    ResultSet rs = executeSelect(connection, "SELECT nspname FROM pg_namespace WHERE oid = pg_my_temp_schema();");
+    String schema = rs.next() ? rs.getString(1) : null;
+    rs.close();
+    return schema;
+  }
 
   /**
-   * Establishes a connection to database.
+   * Parses and encodes the TopURLs file in the working directory.
    *
-   * @param user String represents username for database.
-   * @param password String represents the password for user.
-   * @param database String represents the name of database (including the username).
-   * @return a {@link Connection} if database connection successful, otherwise return null.
+   * @return the encoded ranking, or null if the file could not be read.
    */
-  public static Connection connectToDatabase(String user, String password, String database) {
-  Connection connection = null;
+  public static RankingDictionary parseRanking() {
+    long start = System.nanoTime();
     try {
-      connection=DriverManager.getConnection(database, user, password);
-  } catch (SQLException e) {
-    System.out.println("Connection Failed! Check output console");
-    e.printStackTrace();
-  }
-    return connection;
+      String filepath = new File("").getAbsolutePath();
+      RankingDictionary ranking = isSuffixTrie()
+          ? RankingDictionary.parse(filepath + "/TopURLs", SuffixTrie.read(filepath + "/mapping", suffixList()))
+          : RankingDictionary.parse(filepath + "/TopURLs");
+      reportLoad("ranking dictionary", ranking.size(), start);
+      return ranking;
+    } catch (IOException e) {
+      e.printStackTrace();
+      System.out.println("Error reading file");
+      return null;
+    }
   }
 
   /**
-   * Shows the resultset of a query.
+   * Builds the tld, domain and url tables from url_temp with set based SQL in one transaction,
+   * printing the time taken by each step and by the commit.
    *
-   * @param query String represents the statement to query.
-   * @return the resultset of the query.
+   * @param connection Connection holding url_temp.
    * @throws SQLException
    */
-  public static ResultSet executeSelect (String query) throws SQLException {
-    Statement st = null;
-    st = connection.createStatement();
-    ResultSet rs = null;
-    rs = st.executeQuery(query);
-  return rs;
+  public static void transform(Connection connection) throws SQLException {
+    long start = System.nanoTime();
+    connection.setAutoCommit(false);
+    try {
+      new Tld(connection);
+      new Domain(connection);
+      new Url(connection);
+      long commit = System.nanoTime();
+      connection.commit();
+      Table.generation.incrementAndGet();
+      System.out.printf("Committed transform in %.3f s, %.3f s in total%n",
+          (System.nanoTime() - commit) / 1e9, (System.nanoTime() - start) / 1e9);
+    } catch (SQLException e) {
+      connection.rollback();
+      throw e;
+    } finally {
+      connection.setAutoCommit(true);
+    }
   }
 
   /**
-   * Loads database by initialising all tables and views as well printing out the queries.
+   * Drops the report views if they exist, whether plain or materialized.
    *
+   * @param connection Connection to drop the views on.
    * @throws SQLException
    */
-  public static void loadDatabase() throws SQLException {
-    Table mapping = new Mapping();
-    Table url_temp = new UrlTemp();
-    Table tld = new Tld();
-    Table domain = new Domain();
-    Table url = new Url();
-
-    View top_10_urls = new UrlView();
-    View top_10_tlds = new TldView();
-    View top_10_repeated_domains = new DomainView();
-
-    Query queryOne = new Query(
-        "Query 1: 10 most popular URLs in descending order of popularity",
-        "SELECT * FROM top_10_urls;",
-        "%-10.10s %-15.50s %-7.15s %-7.15s%n");
-
-    Query queryTwo = new Query(
-        "Query 2: 10 distinct most popular top level domains in descending order of popularity",
-        "SELECT tld1, tld2 FROM top_10_tlds;",
-        "%-7.15s %-7.15s%n");
-
-    Query queryThree = new Query(
-        "Query 3: 10 distinct most popular descriptions of the rightmost part of tld in descending order of popularity",
-        "SELECT description FROM top_10_tlds;",
-        "%-50.200s%n");
-
-    Query queryFour = new Query(
-        "Query 4: top 10 distinct domain names that appear more than once, ordered by popularity",
-        "SELECT domain_name FROM top_10_repeated_domains;",
-        "%-15.50s%n");
-
-    Query[] queries = {queryOne, queryTwo, queryThree, queryFour};
-
-    for (Query query : queries) {
-      query.print();
+  public static void dropViews(Connection connection) throws SQLException {
+    Statement st = connection.createStatement();
+    for (String view : new String[]{UrlView.name, TldView.name, DomainView.name}) {
+      if (exists(connection, view, new String[]{"MATERIALIZED VIEW"})) {
+        st.execute("DROP MATERIALIZED VIEW " + view + " CASCADE;");
+      } else {
+        st.execute("DROP VIEW IF EXISTS " + view + " CASCADE;");
+      }
     }
+    st.close();
+  }
+
+  /**
+   * Reads the maximum number of pooled connections from the system property
+   * <code>pool.size</code>, defaulting to 4.
+   *
+   * @return the pool size.
+   *
+   * @see LoadScheduler
+   */
+  public static int poolSize() {
+    return Integer.getInteger("pool.size", 4);
   }
 
   /**
@@ -811,9 +6795,25 @@ public class Database {
    */
   public static void main(String[] args) throws SQLException {
 
-    String user;
-    String password;
-    String database;
+    String user = null;
+    String password = null;
+    String database = null;
+    Connection connection = null;
+
+    if (isMemoryEngine()) {
+      reportInMemory();
+      return;
+    }
+
+    if (isFileEngine()) {
+      reportFromFile();
+      return;
+    }
+
+    if (System.getProperty("generate") != null) {
+      generate();
+      return;
+    }
 
     if (args.length != 2) {
       System.out.println("Please enter your username and password as command line arguments.");
@@ -825,9 +6825,31 @@ public class Database {
     }
 
     if (connection != null) {
-      loadDatabase();
+      pool = new ConnectionPool(database, user, password, poolSize(), connection);
+      try {
+        if (Integer.getInteger("metrics.port") != null) {
+          try {
+            metrics.serve(Integer.getInteger("metrics.port"));
+          } catch (IOException e) {
+            e.printStackTrace();
+            System.out.println("Error starting metrics endpoint");
+          }
+        }
+        if (System.getProperty("snapshots") != null) {
+          loadSnapshots(System.getProperty("snapshots"));
+        } else {
+          loadDatabase();
+        }
+      } finally {
+        metrics.stop();
+        pool.close();
+      }
     } else {
       System.out.println("Failed to make connection!");
+      if (args.length == 2) {
+        System.out.println("Answering the queries in memory instead.");
+        reportInMemory();
+      }
     }
 
   }
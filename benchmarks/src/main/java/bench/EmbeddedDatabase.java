@@ -0,0 +1,50 @@
+package bench;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+
+/**
+ * <h1>Local PostgreSQL the database benchmarks run against.</h1>
+ *
+ * Each benchmark JVM starts its own server from the binaries bundled in the embedded-postgres
+ * jar, so the benchmarks need no installed database or network. Input files are read from the
+ * working directory, like <code>Database</code> does, so run them from the top of the repository.
+ *
+ * @author Hayder
+ * @version 1.0
+ */
+
+abstract class EmbeddedDatabase {
+
+  EmbeddedPostgres postgres;
+  Connection connection;
+
+  /**
+   * Starts the server, connects to it and silences the row counts and reports the loader prints.
+   *
+   * @throws IOException
+   * @throws SQLException
+   */
+  void open() throws IOException, SQLException {
+    postgres = EmbeddedPostgres.builder().start();
+    connection = postgres.getPostgresDatabase().getConnection();
+    System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+  }
+
+  /**
+   * Closes the connection and stops the server.
+   *
+   * @throws IOException
+   * @throws SQLException
+   */
+  void close() throws IOException, SQLException {
+    connection.close();
+    postgres.close();
+  }
+
+}
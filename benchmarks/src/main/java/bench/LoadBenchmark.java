@@ -0,0 +1,65 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <h1>Benchmarks loading the input files into their tables.</h1>
+ *
+ * Each invocation drops, recreates and fills the table, as a load does, with the loader and parser
+ * chosen by the same system properties the loader reads.
+ *
+ * @author Hayder
+ * @version 1.0
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LoadBenchmark extends EmbeddedDatabase {
+
+  @Param({"batch", "copy"})
+  public String loader;
+
+  @Param({"scanner", "mapped", "pipelined"})
+  public String parser;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    System.setProperty("loader", loader);
+    System.setProperty("parser", parser);
+    open();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    close();
+  }
+
+  @Benchmark
+  public Object urlTemp() throws Exception {
+    return Project.create("UrlTemp", connection);
+  }
+
+  @Benchmark
+  public Object mapping() throws Exception {
+    return Project.create("Mapping", connection);
+  }
+
+}
@@ -0,0 +1,93 @@
+package bench;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * <h1>Benchmarks parsing a TopURLs file without writing it anywhere.</h1>
+ *
+ * <code>scanner</code> is the loop in <code>UrlTemp.insertData()</code>, <code>reader</code> the
+ * one in <code>UrlTemp.copyData()</code>, <code>mapped</code> the parallel parser behind
+ * <code>parser=mapped</code> and <code>dictionary</code> the encoding behind
+ * <code>ingest=dictionary</code>. Every row is consumed so nothing is skipped by lazy decoding.
+ *
+ * @author Hayder
+ * @version 1.0
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class ParseBenchmark {
+
+  @Param("TopURLs")
+  public String file;
+
+  @Benchmark
+  public void scanner(Blackhole blackhole) throws IOException {
+    try (Scanner scanner = new Scanner(new FileInputStream(file))) {
+      while (scanner.hasNextLine()) {
+        String line = scanner.nextLine();
+        String[] values = line.split("\t");
+        blackhole.consume(Integer.parseInt(values[0]));
+        blackhole.consume(values[1]);
+        blackhole.consume(values[2]);
+        blackhole.consume(values.length == 4 ? values[3] : "");
+      }
+    }
+  }
+
+  @Benchmark
+  public void reader(Blackhole blackhole) throws IOException {
+    try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+      String line = reader.readLine();
+      while (line != null) {
+        String[] values = line.split("\t");
+        blackhole.consume(Integer.parseInt(values[0]));
+        blackhole.consume(values[1]);
+        blackhole.consume(values[2]);
+        blackhole.consume(values.length == 4 ? values[3] : "");
+        line = reader.readLine();
+      }
+    }
+  }
+
+  @Benchmark
+  public void mapped(Blackhole blackhole) throws Throwable {
+    Object[] segments = (Object[]) Project.parseSegments.invokeExact(file);
+    for (Object segment : segments) {
+      int size = (int) Project.segmentSize.invokeExact(segment);
+      for (int i = 0; i < size; i++) {
+        blackhole.consume((int) Project.segmentPosition.invokeExact(segment, i));
+        blackhole.consume((String) Project.segmentDomain.invokeExact(segment, i));
+        blackhole.consume((String) Project.segmentTld1.invokeExact(segment, i));
+        blackhole.consume((String) Project.segmentTld2.invokeExact(segment, i));
+      }
+    }
+  }
+
+  @Benchmark
+  public Object dictionary() throws Throwable {
+    return (Object) Project.parseDictionary.invokeExact(file);
+  }
+
+}
@@ -0,0 +1,98 @@
+package bench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.sql.Connection;
+
+/**
+ * <h1>Handles on the loader classes the benchmarks call.</h1>
+ *
+ * The loader lives in the default package, which a named package cannot import, and JMH does not
+ * accept benchmarks in the default package. The classes are looked up once by name and called
+ * through constant method handles, which the JIT inlines like direct calls.
+ *
+ * @author Hayder
+ * @version 1.0
+ */
+
+final class Project {
+
+  static final MethodHandle parseSegments;
+  static final MethodHandle segmentSize;
+  static final MethodHandle segmentPosition;
+  static final MethodHandle segmentDomain;
+  static final MethodHandle segmentTld1;
+  static final MethodHandle segmentTld2;
+  static final MethodHandle parseDictionary;
+  static final MethodHandle queries;
+  static final MethodHandle printQuery;
+  static final MethodHandle clearCache;
+
+  static {
+    try {
+      Class<?> parser = Class.forName("TopUrlsParser");
+      Class<?> segment = Class.forName("TopUrlsParser$Segment");
+      Class<?> dictionary = Class.forName("RankingDictionary");
+      Class<?> database = Class.forName("Database");
+      Class<?> query = Class.forName("Query");
+      Class<?> cache = Class.forName("QueryCache");
+
+      parseSegments = lookup(parser).findStatic(parser, "parse",
+          MethodType.methodType(segment.arrayType(), String.class))
+          .asType(MethodType.methodType(Object[].class, String.class));
+      segmentSize = virtual(segment, "size", int.class);
+      segmentPosition = virtual(segment, "position", int.class, int.class);
+      segmentDomain = virtual(segment, "domain", String.class, int.class);
+      segmentTld1 = virtual(segment, "tld1", String.class, int.class);
+      segmentTld2 = virtual(segment, "tld2", String.class, int.class);
+      parseDictionary = lookup(dictionary).findStatic(dictionary, "parse",
+          MethodType.methodType(dictionary, String.class))
+          .asType(MethodType.methodType(Object.class, String.class));
+      queries = lookup(database).findStatic(database, "queries",
+          MethodType.methodType(query.arrayType()))
+          .asType(MethodType.methodType(Object[].class));
+      printQuery = virtual(query, "print", void.class, Connection.class);
+      clearCache = MethodHandles.foldArguments(virtual(cache, "clear", void.class),
+          lookup(database).findStaticGetter(database, "cache", cache)
+              .asType(MethodType.methodType(Object.class)));
+    } catch (ReflectiveOperationException e) {
+      throw new ExceptionInInitializerError(e);
+    }
+  }
+
+  private Project() {
+  }
+
+  /**
+   * Constructs one of the table or view classes, which creates and loads it.
+   *
+   * @param className String represents the name of the class, e.g. <code>UrlTemp</code>.
+   * @param connection Connection the table or view is created on.
+   * @return the new instance.
+   * @throws Exception
+   */
+  static Object create(String className, Connection connection) throws Exception {
+    Class<?> type = Class.forName(className);
+    try {
+      return lookup(type).findConstructor(type, MethodType.methodType(void.class, Connection.class))
+          .invoke(connection);
+    } catch (Throwable e) {
+      if (e instanceof Exception) {
+        throw (Exception) e;
+      }
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static MethodHandles.Lookup lookup(Class<?> type) throws IllegalAccessException {
+    return MethodHandles.privateLookupIn(type, MethodHandles.lookup());
+  }
+
+  private static MethodHandle virtual(Class<?> type, String name, Class<?> returns, Class<?>... parameters)
+      throws ReflectiveOperationException {
+    MethodHandle handle = lookup(type).findVirtual(type, name, MethodType.methodType(returns, parameters));
+    return handle.asType(handle.type().changeParameterType(0, Object.class));
+  }
+
+}
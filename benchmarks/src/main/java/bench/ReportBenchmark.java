@@ -0,0 +1,69 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <h1>Benchmarks each of the four report queries.</h1>
+ *
+ * The tables and views are loaded once, then each invocation prints one report. The query cache
+ * is cleared first so every invocation reaches the database.
+ *
+ * @author Hayder
+ * @version 1.0
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReportBenchmark extends EmbeddedDatabase {
+
+  @Param({"0", "1", "2", "3"})
+  public int query;
+
+  @Param({"plain", "materialized"})
+  public String views;
+
+  private Object report;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Throwable {
+    open();
+    for (String table : new String[]{"Mapping", "UrlTemp", "Tld", "Domain", "Url"}) {
+      Project.create(table, connection);
+    }
+    String prefix = views.equals("materialized") ? "Materialized" : "";
+    for (String view : new String[]{"UrlView", "TldView", "DomainView"}) {
+      Project.create(prefix + view, connection);
+    }
+    report = ((Object[]) Project.queries.invokeExact())[query];
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    close();
+  }
+
+  @Benchmark
+  public void print() throws Throwable {
+    Project.clearCache.invokeExact();
+    Project.printQuery.invokeExact(report, connection);
+  }
+
+}
@@ -0,0 +1,61 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <h1>Benchmarks building the url table from url_temp.</h1>
+ *
+ * mapping, url_temp, tld and domain are loaded once, then each invocation recreates url and fills
+ * it by joining url_temp with tld. <code>temp</code> reads the join back and reinserts it in a
+ * batch, as <code>Url.insertData()</code> does, <code>server</code> runs it as one
+ * <code>INSERT ... SELECT</code>.
+ *
+ * @author Hayder
+ * @version 1.0
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TransformBenchmark extends EmbeddedDatabase {
+
+  @Param({"temp", "server"})
+  public String ingest;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    open();
+    for (String table : new String[]{"Mapping", "UrlTemp", "Tld", "Domain"}) {
+      Project.create(table, connection);
+    }
+    System.setProperty("ingest", ingest);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    close();
+  }
+
+  @Benchmark
+  public Object url() throws Exception {
+    return Project.create("Url", connection);
+  }
+
+}
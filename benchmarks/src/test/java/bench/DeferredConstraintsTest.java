@@ -0,0 +1,87 @@
+package bench;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.Test;
+
+/**
+ * <h1>Checks that deferred constraints keep the rows immediate ones do.</h1>
+ *
+ * url_temp is filled with urls that repeat positions and (domain, tld) pairs, then tld, domain and
+ * url are built from it with <code>constraints=immediate</code> and with
+ * <code>constraints=deferred</code>. Both must leave the same urls, as if every row had been
+ * inserted with <code>ON CONFLICT DO NOTHING</code> in order.
+ *
+ * @author Hayder
+ * @version 1.0
+ */
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class DeferredConstraintsTest extends EmbeddedDatabase {
+
+  /**
+   * Rows of url_temp. The second row loses position 1 to the first, so the third, which only
+   * shares its pair with the second, must be kept.
+   */
+  static final String rows = "(1, 'd', 'com', ''), (1, 'e', 'com', ''), (2, 'e', 'com', ''),\n"
+      + "(3, 'f', 'org', ''), (3, 'g', 'org', ''), (4, 'g', 'org', ''), (4, 'f', 'org', ''),\n"
+      + "(5, 'd', 'com', ''), (6, 'h', 'co', 'uk'), (6, 'h', 'co', 'uk'), (7, 'i', 'co', 'uk')";
+
+  @BeforeAll
+  public void setUp() throws Exception {
+    open();
+    try (Statement st = connection.createStatement()) {
+      st.execute("CREATE TABLE mapping (tld VARCHAR(15), description VARCHAR(200) NOT NULL, PRIMARY KEY (tld))");
+      st.execute("INSERT INTO mapping VALUES ('com', 'Commercial'), ('org', 'Non-profit'), ('uk', 'United Kingdom')");
+      st.execute("CREATE TEMP TABLE url_temp (pos INT, domain_name VARCHAR(50), tld1 VARCHAR(15) NOT NULL, "
+          + "tld2 VARCHAR(15))");
+      st.execute("INSERT INTO url_temp VALUES " + rows);
+    }
+  }
+
+  @AfterAll
+  public void tearDown() throws Exception {
+    System.clearProperty("constraints");
+    System.clearProperty("keys");
+    close();
+  }
+
+  @Test
+  public void naturalKeys() throws Exception {
+    System.setProperty("keys", "natural");
+    assertEquals(load("immediate"), load("deferred"));
+  }
+
+  @Test
+  public void surrogateKeys() throws Exception {
+    System.setProperty("keys", "surrogate");
+    assertEquals(load("immediate"), load("deferred"));
+  }
+
+  private List<String> load(String constraints) throws Exception {
+    System.setProperty("constraints", constraints);
+    for (String table : new String[]{"Tld", "Domain", "Url"}) {
+      Project.create(table, connection);
+    }
+
+    List<String> urls = new ArrayList<String>();
+    try (Statement st = connection.createStatement();
+        ResultSet rs = st.executeQuery("SELECT position, domain_name, tld1, tld2 FROM url "
+            + "NATURAL JOIN " + ("surrogate".equals(System.getProperty("keys")) ? "domain NATURAL JOIN " : "")
+            + "tld ORDER BY position")) {
+      while (rs.next()) {
+        urls.add(rs.getInt(1) + " " + rs.getString(2) + "." + rs.getString(3) + "." + rs.getString(4));
+      }
+    }
+    return urls;
+  }
+
+}
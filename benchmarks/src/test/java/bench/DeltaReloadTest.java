@@ -0,0 +1,79 @@
+package bench;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * <h1>Checks that an incremental reload ends where a full load of the new files does.</h1>
+ *
+ * The fixtures are loaded, then changed files are applied with <code>reload=incremental</code>:
+ * urls move, leave and join the ranking, a new tld appears and a description changes. The
+ * tables and reports must then match a full load of the changed files. ids are left out of the
+ * comparison, as the delta keeps the ones already handed out.
+ *
+ * @author Hayder
+ * @version 1.0
+ */
+
+public class DeltaReloadTest extends LoadTest {
+
+  @Test
+  public void naturalKeys() throws Exception {
+    assertEquals(full(), incremental());
+  }
+
+  @Test
+  public void surrogateKeys() throws Exception {
+    assertEquals(full("keys=surrogate"), incremental("keys=surrogate"));
+  }
+
+  @Test
+  public void partitioned() throws Exception {
+    assertEquals(full("partition=5"), incremental("partition=5"));
+  }
+
+  private List<String> full(String... options) throws Exception {
+    writeChanged();
+    load(options);
+    return state();
+  }
+
+  private List<String> incremental(String... options) throws Exception {
+    write("mapping", mapping);
+    write("TopURLs", topUrls);
+    load(options);
+    writeChanged();
+    String[] reload = Arrays.copyOf(options, options.length + 1);
+    reload[options.length] = "reload=incremental";
+    load(reload);
+    return state();
+  }
+
+  private static void writeChanged() throws Exception {
+    List<String> changedMapping = new ArrayList<String>(Arrays.asList(mapping));
+    changedMapping.set(changedMapping.indexOf("de\tGermany"), "de\tDeutschland");
+    changedMapping.add("fr\tFrance");
+    write("mapping", changedMapping.toArray(new String[0]));
+
+    List<String> changedUrls = new ArrayList<String>(Arrays.asList(topUrls));
+    changedUrls.set(0, "1\tfacebook\tcom\t\t");
+    changedUrls.set(1, "2\tgoogle\tcom\t\t");
+    changedUrls.set(4, "5\tlemonde\tfr\t\t");
+    changedUrls.remove(changedUrls.size() - 1);
+    changedUrls.add("25\twikipedia\torg\t\t");
+    write("TopURLs", changedUrls.toArray(new String[0]));
+  }
+
+  private List<String> state() throws Exception {
+    List<String> state = new ArrayList<String>(ranking());
+    state.addAll(rows("SELECT * FROM mapping ORDER BY tld"));
+    state.add(reports());
+    return state;
+  }
+
+}
@@ -0,0 +1,49 @@
+package bench;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * <h1>Checks that the dictionary ingest builds the tables the temp ingest does.</h1>
+ *
+ * The same files are loaded with <code>ingest=temp</code> and <code>ingest=dictionary</code>.
+ * tld, domain and url must hold the same rows with the same ids, including the domain_ids
+ * numbered by name with <code>keys=surrogate</code>.
+ *
+ * @author Hayder
+ * @version 1.0
+ */
+
+public class DictionaryIngestTest extends LoadTest {
+
+  /**
+   * Names whose UTF-16 order differs from their byte order, which domain_ids follow.
+   */
+  static final String[] unicode = {"25\tａbc\tcom\t\t", "26\t😀x\tcom\t\t"};
+
+  @Test
+  public void naturalKeys() throws Exception {
+    write("mapping", mapping);
+    write("TopURLs", topUrls);
+    assertEquals(tables("ingest=temp"), tables("ingest=dictionary"));
+  }
+
+  @Test
+  public void surrogateKeys() throws Exception {
+    write("mapping", mapping);
+    String[] lines = Arrays.copyOf(topUrls, topUrls.length + unicode.length);
+    System.arraycopy(unicode, 0, lines, topUrls.length, unicode.length);
+    write("TopURLs", lines);
+    assertEquals(tables("ingest=temp", "keys=surrogate"), tables("ingest=dictionary", "keys=surrogate"));
+  }
+
+  private List<String> tables(String... options) throws Exception {
+    load(options);
+    return tables();
+  }
+
+}
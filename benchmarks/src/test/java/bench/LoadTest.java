@@ -0,0 +1,310 @@
+package bench;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Executable;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.TestInstance;
+
+/**
+ * <h1>Base of the tests that load input files the way <code>Database</code> does.</h1>
+ *
+ * Tests run in a working directory of their own under <code>target</code>, where they write the
+ * TopURLs and mapping files they load. Loads go through <code>Database.loadTables()</code> on a
+ * pool of connections to the embedded server, with the options given as system properties. The
+ * loader classes are in the default package, so they are reached by reflection.
+ *
+ * @author Hayder
+ * @version 1.0
+ */
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+abstract class LoadTest extends EmbeddedDatabase {
+
+  /**
+   * Mapping with a two label entry, so suffixes can be described at either depth.
+   */
+  static final String[] mapping = {"com\tCommercial", "org\tNon-profit", "uk\tUnited Kingdom",
+      "co.uk\tUK companies", "jp\tJapan", "de\tGermany", "net\tNetwork"};
+
+  /**
+   * Ranking in the TopURLs format that repeats domains under several tlds and repeats whole
+   * (domain, tld) pairs, and has a tld that is not in the mapping.
+   */
+  static final String[] topUrls = {"1\tgoogle\tcom\t\t", "2\tfacebook\tcom\t\t",
+      "3\tgoogle\tco\tuk\t", "4\tbbc\tco\tuk\t", "5\twikipedia\torg\t\t", "6\tyahoo\tco\tjp\t",
+      "7\tgoogle\tde\t\t", "8\tamazon\tcom\t\t", "9\tgoogle\tcom\t\t", "10\tyahoo\tcom\t\t",
+      "11\tspiegel\tde\t\t", "12\tamazon\tco\tuk\t", "13\tnhk\tor\tjp\t", "14\tbaidu\tcom\t\t",
+      "15\tgithub\tio\t\t", "16\tmozilla\torg\t\t", "17\tamazon\tde\t\t", "18\tbbc\tcom\t\t",
+      "19\tyahoo\tco\tjp\t", "20\tcloudflare\tnet\t\t", "21\tsourceforge\tnet\t\t",
+      "22\twikipedia\tde\t\t", "23\tasahi\tcom\t\t", "24\tgov\tuk\t\t"};
+
+  Object pool;
+
+  @BeforeAll
+  public void start() throws Exception {
+    open();
+    pool = construct("ConnectionPool", postgres.getJdbcUrl("postgres", "postgres"), "postgres", "", 4,
+        connection);
+    Class.forName("Database").getField("pool").set(null, pool);
+  }
+
+  @AfterAll
+  public void stop() throws Exception {
+    call(pool, "close");
+    close();
+  }
+
+  /**
+   * Writes a file in the working directory, one line per string.
+   *
+   * @param file String represents name of the file.
+   * @param lines String array of the lines.
+   * @throws IOException
+   */
+  static void write(String file, String... lines) throws IOException {
+    Files.write(Path.of(file), Arrays.asList(lines), StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Loads the TopURLs and mapping files in the working directory with some options set.
+   *
+   * @param options String array of <code>name=value</code> system properties, cleared afterwards.
+   * @throws Exception
+   */
+  static void load(String... options) throws Exception {
+    try {
+      for (String option : options) {
+        System.setProperty(option.substring(0, option.indexOf('=')), option.substring(option.indexOf('=') + 1));
+      }
+      if (!(Boolean) call("Database", "loadTables")) {
+        throw new IOException("Input could not be read");
+      }
+    } finally {
+      for (String option : options) {
+        System.clearProperty(option.substring(0, option.indexOf('=')));
+      }
+    }
+  }
+
+  /**
+   * Runs a query and reads its rows.
+   *
+   * @param query String represents the query.
+   * @return each row as its values separated by tabs.
+   * @throws Exception
+   */
+  List<String> rows(String query) throws Exception {
+    List<String> rows = new ArrayList<String>();
+    try (Statement st = connection.createStatement(); ResultSet rs = st.executeQuery(query)) {
+      while (rs.next()) {
+        StringBuilder row = new StringBuilder();
+        for (int i = 1; i <= rs.getMetaData().getColumnCount(); i++) {
+          row.append(i == 1 ? "" : "\t").append(rs.getString(i));
+        }
+        rows.add(row.toString());
+      }
+    }
+    return rows;
+  }
+
+  /**
+   * Reads the loaded ranking by value, so loads numbering tlds or domains differently compare
+   * equal.
+   *
+   * @return the position, domain, tld pair and tld description of every url.
+   * @throws Exception
+   */
+  List<String> ranking() throws Exception {
+    return rows("SELECT position, domain_name, tld1, tld2, rightmost_tld FROM url NATURAL JOIN domain "
+        + "NATURAL JOIN tld ORDER BY position");
+  }
+
+  /**
+   * Reads tld, domain and url as stored, ids included, for loads that must build the same tables.
+   *
+   * @return the rows of the three tables in key order.
+   * @throws Exception
+   */
+  List<String> tables() throws Exception {
+    List<String> rows = new ArrayList<String>();
+    rows.addAll(rows("SELECT * FROM tld ORDER BY tld_id"));
+    rows.addAll(rows("SELECT * FROM domain ORDER BY 1"));
+    rows.addAll(rows("SELECT * FROM url ORDER BY position"));
+    return rows;
+  }
+
+  /**
+   * Prints the four reports from the database, bypassing the query cache.
+   *
+   * @return the printed reports.
+   * @throws Exception
+   */
+  String reports() throws Exception {
+    call(Class.forName("Database").getField("cache").get(null), "clear");
+    StringBuilder printed = new StringBuilder();
+    for (Object query : (Object[]) call("Database", "queries")) {
+      Object result = call(query, "read", connection);
+      printed.append(printed(() -> call(query, "print", result)));
+    }
+    return printed.toString();
+  }
+
+  /**
+   * Prints the four reports computed in memory.
+   *
+   * @param reports Object holding the RankingReports to compute them from.
+   * @return the printed reports.
+   * @throws Exception
+   */
+  static String reports(Object reports) throws Exception {
+    StringBuilder printed = new StringBuilder();
+    for (Object query : (Object[]) call("Database", "queries")) {
+      printed.append(printed(() -> call(query, "print", reports)));
+    }
+    return printed.toString();
+  }
+
+  /**
+   * Work whose output to console is captured.
+   */
+  interface Printing {
+    void run() throws Exception;
+  }
+
+  /**
+   * Captures what some work prints to console.
+   *
+   * @param printing Printing to run.
+   * @return the printed text.
+   * @throws Exception
+   */
+  static String printed(Printing printing) throws Exception {
+    PrintStream out = System.out;
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    System.setOut(new PrintStream(bytes, true, StandardCharsets.UTF_8));
+    try {
+      printing.run();
+    } finally {
+      System.setOut(out);
+    }
+    return bytes.toString(StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Calls a static method of a loader class.
+   *
+   * @param className String represents the name of the class, e.g. <code>Database</code>.
+   * @param method String represents the name of the method.
+   * @param args Object array of the arguments.
+   * @return the result of the method.
+   * @throws Exception
+   */
+  static Object call(String className, String method, Object... args) throws Exception {
+    return invoke(Class.forName(className), null, method, args);
+  }
+
+  /**
+   * Calls a method of a loader object.
+   *
+   * @param target Object to call the method on.
+   * @param method String represents the name of the method.
+   * @param args Object array of the arguments.
+   * @return the result of the method.
+   * @throws Exception
+   */
+  static Object call(Object target, String method, Object... args) throws Exception {
+    return invoke(target.getClass(), target, method, args);
+  }
+
+  /**
+   * Reads a field of a loader object.
+   *
+   * @param target Object holding the field.
+   * @param name String represents the name of the field.
+   * @return the value of the field.
+   * @throws Exception
+   */
+  static Object field(Object target, String name) throws Exception {
+    Field field = target.getClass().getDeclaredField(name);
+    field.setAccessible(true);
+    return field.get(target);
+  }
+
+  /**
+   * Constructs a loader object.
+   *
+   * @param className String represents the name of the class.
+   * @param args Object array of the arguments.
+   * @return the new instance.
+   * @throws Exception
+   */
+  static Object construct(String className, Object... args) throws Exception {
+    for (Constructor<?> constructor : Class.forName(className).getDeclaredConstructors()) {
+      if (accepts(constructor, args)) {
+        constructor.setAccessible(true);
+        try {
+          return constructor.newInstance(args);
+        } catch (InvocationTargetException e) {
+          throw unwrap(e);
+        }
+      }
+    }
+    throw new NoSuchMethodException(className + " constructor");
+  }
+
+  private static Object invoke(Class<?> type, Object target, String name, Object... args) throws Exception {
+    for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+      for (Method method : c.getDeclaredMethods()) {
+        if (method.getName().equals(name) && accepts(method, args)) {
+          method.setAccessible(true);
+          try {
+            return method.invoke(target, args);
+          } catch (InvocationTargetException e) {
+            throw unwrap(e);
+          }
+        }
+      }
+    }
+    throw new NoSuchMethodException(type.getName() + "." + name);
+  }
+
+  private static boolean accepts(Executable executable, Object[] args) {
+    Class<?>[] parameters = executable.getParameterTypes();
+    if (parameters.length != args.length) {
+      return false;
+    }
+    for (int i = 0; i < args.length; i++) {
+      Class<?> parameter = MethodType.methodType(parameters[i]).wrap().returnType();
+      if (args[i] != null && !parameter.isInstance(args[i])) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static Exception unwrap(InvocationTargetException e) {
+    Throwable cause = e.getCause();
+    if (cause instanceof Exception) {
+      return (Exception) cause;
+    }
+    throw (Error) cause;
+  }
+
+}
@@ -0,0 +1,28 @@
+package bench;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * <h1>Checks that the in-memory engine prints the reports the database does.</h1>
+ *
+ * The files are loaded into the database and also parsed by <code>RankingReports</code>. The
+ * four reports printed from the views and from memory must be the same, tlds missing from the
+ * mapping and domains repeated under one tld included.
+ *
+ * @author Hayder
+ * @version 1.0
+ */
+
+public class MemoryEngineTest extends LoadTest {
+
+  @Test
+  public void sameReports() throws Exception {
+    write("mapping", mapping);
+    write("TopURLs", topUrls);
+    load();
+    assertEquals(reports(), reports(call("RankingReports", "load", "TopURLs", "mapping")));
+  }
+
+}
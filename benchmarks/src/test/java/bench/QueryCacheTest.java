@@ -0,0 +1,100 @@
+package bench;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * <h1>Checks that cached reports are not served after the load that changed them.</h1>
+ *
+ * An incremental reload loads url_temp, which counts as a finished load, before it changes the
+ * tables in one transaction. A report read in between reads the old rows, so it has to be
+ * dropped from the cache once the delta is committed.
+ *
+ * @author Hayder
+ * @version 1.0
+ */
+
+public class QueryCacheTest extends LoadTest {
+
+  @Test
+  public void deltaReload() throws Exception {
+    write("mapping", mapping);
+    write("TopURLs", topUrls);
+    load();
+    Object top = ((Object[]) call("Database", "queries"))[0];
+    List<String> before = cached(top, connection);
+
+    String[] moved = topUrls.clone();
+    moved[0] = "1\tfacebook\tcom\t\t";
+    moved[1] = "2\tgoogle\tcom\t\t";
+    write("TopURLs", moved);
+
+    // holding tld stops the delta after url_temp is loaded, before it changes anything
+    try (Connection lock = postgres.getPostgresDatabase().getConnection();
+        Connection reader = postgres.getPostgresDatabase().getConnection()) {
+      lock.setAutoCommit(false);
+      try (Statement st = lock.createStatement()) {
+        st.execute("LOCK TABLE tld IN SHARE MODE");
+      }
+      CompletableFuture<Void> reload = CompletableFuture.runAsync(() -> {
+        try {
+          load("reload=incremental");
+        } catch (Exception e) {
+          throw new RuntimeException(e);
+        }
+      });
+      awaitLockWait(reader, reload);
+      assertEquals(before, cached(top, reader));
+      lock.commit();
+      reload.get(60, TimeUnit.SECONDS);
+
+      List<String> after = cached(top, reader);
+      assertNotEquals(before, after);
+      assertEquals(rows("SELECT * FROM top_10_urls ORDER BY position"), after);
+    }
+  }
+
+  private static List<String> cached(Object query, Connection connection) throws Exception {
+    Object result = call(query, "read", connection);
+    List<String> rows = new ArrayList<String>();
+    for (Object[] row : (List<Object[]>) field(result, "rows")) {
+      StringBuilder values = new StringBuilder();
+      for (int i = 0; i < row.length; i++) {
+        values.append(i == 0 ? "" : "\t").append(row[i]);
+      }
+      rows.add(values.toString());
+    }
+    return rows;
+  }
+
+  private static void awaitLockWait(Connection connection, CompletableFuture<Void> reload) throws Exception {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(60);
+    while (System.nanoTime() < deadline) {
+      if (reload.isDone()) {
+        // a reload that failed or never reached tld, get() reports which
+        reload.get();
+        throw new AssertionError("The reload finished without waiting for tld");
+      }
+      try (Statement st = connection.createStatement();
+          ResultSet rs = st.executeQuery("SELECT count(*) FROM pg_stat_activity WHERE wait_event_type = 'Lock'")) {
+        rs.next();
+        if (rs.getInt(1) > 0) {
+          return;
+        }
+      }
+      Thread.sleep(20);
+    }
+    throw new AssertionError("The reload never waited for tld");
+  }
+
+}
@@ -0,0 +1,62 @@
+package bench;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * <h1>Checks that a ranking file reads back the ranking it was exported from.</h1>
+ *
+ * The loaded tables are exported with <code>RankingFile.export</code> and the file is mapped
+ * again. It must hold every url of the database in order, and the reports computed from it must
+ * be the ones the views give.
+ *
+ * @author Hayder
+ * @version 1.0
+ */
+
+public class RankingFileTest extends LoadTest {
+
+  static final String file = "ranking.bin";
+
+  @Test
+  public void naturalKeys() throws Exception {
+    roundTrip();
+  }
+
+  @Test
+  public void surrogateKeys() throws Exception {
+    System.setProperty("keys", "surrogate");
+    try {
+      roundTrip();
+    } finally {
+      System.clearProperty("keys");
+    }
+  }
+
+  private void roundTrip() throws Exception {
+    write("mapping", mapping);
+    write("TopURLs", topUrls);
+    load();
+    call("RankingFile", "export", connection, file);
+
+    assertEquals(rows("SELECT position, domain_name, tld1, tld2 FROM url NATURAL JOIN domain "
+        + "NATURAL JOIN tld ORDER BY position"), urls(call("RankingFile", "open", file)));
+    assertEquals(reports(), reports(call("RankingReports", "open", file)));
+  }
+
+  private static List<String> urls(Object ranking) throws Exception {
+    List<String> urls = new ArrayList<String>();
+    for (int row = 0; row < (Integer) call(ranking, "size"); row++) {
+      Object tldId = call(ranking, "tldId", row);
+      urls.add(call(ranking, "position", row) + "\t"
+          + call(ranking, "domainName", call(ranking, "domain", row)) + "\t"
+          + call(ranking, "tld1", tldId) + "\t" + call(ranking, "tld2", tldId));
+    }
+    return urls;
+  }
+
+}
@@ -0,0 +1,41 @@
+package bench;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * <h1>Checks that the server side transform builds the tables the temp ingest does.</h1>
+ *
+ * The same files are loaded with <code>ingest=temp</code> and <code>ingest=server</code>, which
+ * fills tld, domain and url from url_temp in one transaction. Both must leave the same rows with
+ * the same ids.
+ *
+ * @author Hayder
+ * @version 1.0
+ */
+
+public class ServerTransformTest extends LoadTest {
+
+  @Test
+  public void naturalKeys() throws Exception {
+    write("mapping", mapping);
+    write("TopURLs", topUrls);
+    assertEquals(tables("ingest=temp"), tables("ingest=server"));
+  }
+
+  @Test
+  public void surrogateKeys() throws Exception {
+    write("mapping", mapping);
+    write("TopURLs", topUrls);
+    assertEquals(tables("ingest=temp", "keys=surrogate"), tables("ingest=server", "keys=surrogate"));
+  }
+
+  private List<String> tables(String... options) throws Exception {
+    load(options);
+    return tables();
+  }
+
+}
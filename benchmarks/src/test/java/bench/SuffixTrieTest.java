@@ -0,0 +1,43 @@
+package bench;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * <h1>Checks that the suffix trie agrees with the two label split where the split is right.</h1>
+ *
+ * Every hostname in the ranking ends in a suffix of one or two labels that is listed in the
+ * mapping or the public suffix list, so the columns of TopURLs already hold the registrable
+ * domain and its suffix. Resolving them through the trie must then store the same urls as the
+ * split does.
+ *
+ * @author Hayder
+ * @version 1.0
+ */
+
+public class SuffixTrieTest extends LoadTest {
+
+  /**
+   * Public suffix list covering the suffixes of the ranking that the mapping does not list.
+   */
+  static final String[] suffixes = {"// ===BEGIN ICANN DOMAINS===", "com", "org", "uk", "co.uk",
+      "jp", "or.jp", "co.jp", "de", "net", "io", "// ===END ICANN DOMAINS===", "// private", "github.io"};
+
+  @Test
+  public void knownSuffixes() throws Exception {
+    write("mapping", mapping);
+    write("TopURLs", topUrls);
+    write("suffixes.dat", suffixes);
+
+    load();
+    String query = "SELECT position, domain_name, tld1, tld2 FROM url NATURAL JOIN domain NATURAL JOIN tld "
+        + "ORDER BY position";
+    List<String> split = rows(query);
+    load("suffixes=suffixes.dat");
+    assertEquals(split, rows(query));
+  }
+
+}
@@ -14,9 +14,13 @@ CREATE TABLE tld (
   tld_id INT,
 	tld1 VARCHAR(15) NOT NULL,
 	tld2 VARCHAR(15),
-	PRIMARY KEY (tld_id)
+	rightmost_tld VARCHAR(15),
+	PRIMARY KEY (tld_id),
+	FOREIGN KEY (rightmost_tld) REFERENCES mapping
 );
 
+CREATE INDEX ON tld (rightmost_tld);
+
 CREATE TABLE url (
   domain_name VARCHAR(50) NOT NULL,
   tld_id INT NOT NULL,
@@ -25,7 +29,7 @@ CREATE TABLE url (
   FOREIGN KEY (domain_name) REFERENCES domain,
   FOREIGN KEY (tld_id) REFERENCES tld,
   UNIQUE (position),
-  CHECK (position >= 1 AND position <= 10000)
+  CHECK (position >= 1)
 );
 
 -- insert values into mapping table
@@ -46,10 +50,13 @@ INSERT INTO url_temp (pos, domain_name, tld1, tld2)
 VALUES (?, ?, ?, ?)
 
 -- insert tld data from url temp table into real url table
+-- rightmost_tld is left NULL when mapping has no description for it
 INSERT INTO tld
-  SELECT row_number() OVER (ORDER BY min(pos)), tld1, tld2
-  FROM url_temp
-  GROUP BY tld1, tld2
+  SELECT t.tld_id, t.tld1, t.tld2, mapping.tld
+  FROM (SELECT row_number() OVER (ORDER BY min(pos)) AS tld_id, tld1, tld2
+    FROM url_temp
+    GROUP BY tld1, tld2) t
+  LEFT JOIN mapping ON mapping.tld = (CASE WHEN t.tld2 = '' THEN t.tld1 ELSE t.tld2 END)
 ON CONFLICT DO NOTHING;
 
 -- insert domain_name data from url temp table into real url table
@@ -75,14 +82,8 @@ CREATE VIEW top_10_urls AS
   CREATE VIEW top_10_tlds AS
     SELECT min(position) AS best_position, tld1, tld2, description
     FROM url
-    NATURAL JOIN tld, mapping
-    WHERE
-    (
-      CASE
-        WHEN tld.tld2 = '' THEN tld.tld1
-        ELSE tld.tld2
-      END
-    )  = mapping.tld
+    NATURAL JOIN tld
+    JOIN mapping ON mapping.tld = tld.rightmost_tld
     GROUP BY tld1, tld2, description
     ORDER BY best_position
     LIMIT 10;